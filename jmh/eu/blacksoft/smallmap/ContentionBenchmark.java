@@ -0,0 +1,110 @@
+package eu.blacksoft.smallmap;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares maps shared between threads: ConcurrentSmallMap, StampedSmallMap,
+ * SmallMap wrapped in Collections.synchronizedMap and ConcurrentHashMap.
+ *
+ * readOnly runs 4 reading threads, readMostly 3 readers against 1 thread
+ * replacing values. Every invocation runs over {@link MapBenchmark#PROBES}
+ * keys, so reported times are per single operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ContentionBenchmark {
+	static final int PROBES = MapBenchmark.PROBES;
+
+	@State(Scope.Benchmark)
+	public static class SharedState {
+		@Param({ "ConcurrentSmallMap", "StampedSmallMap", "SynchronizedSmallMap",
+				"ConcurrentHashMap" })
+		String implementation;
+
+		@Param({ "2", "4" })
+		int size;
+
+		Map<String, Integer> map;
+		String[] probes;
+
+		@Setup
+		public void setUp() {
+			if ("ConcurrentSmallMap".equals(implementation)) {
+				map = new ConcurrentSmallMap<String, Integer>();
+			} else if ("StampedSmallMap".equals(implementation)) {
+				map = new StampedSmallMap<String, Integer>();
+			} else if ("SynchronizedSmallMap".equals(implementation)) {
+				map = Collections.synchronizedMap(SmallMap.<String, Integer> newSmallMap());
+			} else if ("ConcurrentHashMap".equals(implementation)) {
+				map = new ConcurrentHashMap<String, Integer>();
+			} else {
+				throw new IllegalArgumentException("Unknown implementation: " + implementation);
+			}
+			String[] keys = MapBenchmark.keys(size, "present");
+			for (int i = 0; i < size; ++i) {
+				map.put(keys[i], i);
+			}
+			probes = new String[PROBES];
+			for (int i = 0; i < PROBES; ++i) {
+				probes[i] = new String(keys[i % size]);
+			}
+		}
+	}
+
+	@Benchmark
+	@Threads(4)
+	@OperationsPerInvocation(PROBES)
+	public void readOnly(SharedState state, Blackhole blackhole) {
+		read(state, blackhole);
+	}
+
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(3)
+	@OperationsPerInvocation(PROBES)
+	public void reader(SharedState state, Blackhole blackhole) {
+		read(state, blackhole);
+	}
+
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(1)
+	@OperationsPerInvocation(PROBES)
+	public void writer(SharedState state, Blackhole blackhole) {
+		Map<String, Integer> map = state.map;
+		Integer value = Integer.valueOf(PROBES);
+		for (String key : state.probes) {
+			blackhole.consume(map.put(key, value));
+		}
+	}
+
+	private static void read(SharedState state, Blackhole blackhole) {
+		Map<String, Integer> map = state.map;
+		for (String probe : state.probes) {
+			blackhole.consume(map.get(probe));
+		}
+	}
+}
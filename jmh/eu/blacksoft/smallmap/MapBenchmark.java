@@ -0,0 +1,270 @@
+package eu.blacksoft.smallmap;
+
+import gnu.trove.map.hash.THashMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Compares basic operations of SmallMap against other Map implementations.
+ *
+ * Sizes cover both array mode and backing map mode of SmallMap (default
+ * threshold is 5, sorted variant keeps up to 32 entries in arrays). Unless
+ * noted otherwise every invocation runs over {@link #PROBES} keys, so
+ * reported times are per single operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MapBenchmark {
+	static final int PROBES = 64;
+	static final SmallMapFactory ADAPTIVE = SmallMapFactory.DEFAULT.withAdaptiveThreshold(2, 32);
+	static final SmallMapFactory SORTED = SmallMapFactory.DEFAULT.withThreshold(32)
+			.withSortedKeys();
+	static final SmallMapFactory COMPACT = SmallMapFactory.DEFAULT.withCompactBackingMap();
+	static final KeySchema SHAPED = KeySchema.root(SmallMapFactory.DEFAULT.withThreshold(32));
+
+	/**
+	 * Creates empty map of given implementation.
+	 */
+	static Map<String, Integer> newMap(String implementation) {
+		if ("SmallMap".equals(implementation)) {
+			return SmallMap.newSmallMap();
+		}
+		if ("SmallMapCachedHashes".equals(implementation)) {
+			return new SmallMap<String, Integer>(5, new MapCreator() {
+				@Override
+				public <K, V> Map<K, V> create(int initialSize) {
+					return new HashMap<K, V>(initialSize);
+				}
+			}, true);
+		}
+		if ("SmallMapAdaptive".equals(implementation)) {
+			return ADAPTIVE.create();
+		}
+		if ("SmallMapSorted".equals(implementation)) {
+			return SORTED.create();
+		}
+		if ("SmallMapCompact".equals(implementation)) {
+			return COMPACT.create();
+		}
+		if ("SmallMapShaped".equals(implementation)) {
+			return new ShapedSmallMap<String, Integer>(SHAPED);
+		}
+		if ("HashMap".equals(implementation)) {
+			return new HashMap<String, Integer>();
+		}
+		if ("THashMap".equals(implementation)) {
+			return new THashMap<String, Integer>();
+		}
+		throw new IllegalArgumentException("Unknown implementation: " + implementation);
+	}
+
+	/**
+	 * Generates distinct keys. Probes use copies of the keys, so lookups can't
+	 * succeed on reference equality alone.
+	 */
+	static String[] keys(int count, String prefix) {
+		String[] keys = new String[count];
+		for (int i = 0; i < count; ++i) {
+			keys[i] = prefix + "-key-" + i;
+		}
+		return keys;
+	}
+
+	@State(Scope.Thread)
+	public static class ReadState {
+		@Param({ "SmallMap", "SmallMapCachedHashes", "SmallMapAdaptive", "SmallMapSorted",
+				"SmallMapCompact", "SmallMapFrozen", "SmallMapShaped", "HashMap", "ImmutableMap",
+				"THashMap" })
+		String implementation;
+
+		@Param({ "1", "2", "3", "4", "5", "6", "8", "16", "32" })
+		int size;
+
+		@Param({ "1.0", "0.5", "0.0" })
+		double hitRatio;
+
+		Map<String, Integer> map;
+		String[] probes;
+
+		@Setup
+		public void setUp() {
+			String[] keys = keys(size, "present");
+			String[] missing = keys(PROBES, "missing");
+			Map<String, Integer> source = new HashMap<String, Integer>();
+			for (int i = 0; i < size; ++i) {
+				source.put(keys[i], i);
+			}
+			if ("ImmutableMap".equals(implementation)) {
+				map = ImmutableMap.copyOf(source);
+			} else if ("SmallMapFrozen".equals(implementation)) {
+				SmallMap<String, Integer> smallMap = SmallMap.newSmallMap();
+				smallMap.putAll(source);
+				map = smallMap.freeze();
+			} else {
+				map = newMap(implementation);
+				for (String key : keys) {
+					map.put(key, source.get(key));
+				}
+			}
+
+			Random random = new Random(size);
+			probes = new String[PROBES];
+			for (int i = 0; i < PROBES; ++i) {
+				if (random.nextDouble() < hitRatio) {
+					probes[i] = new String(keys[random.nextInt(size)]);
+				} else {
+					probes[i] = new String(missing[i]);
+				}
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class WriteState {
+		@Param({ "SmallMap", "SmallMapCachedHashes", "SmallMapAdaptive", "SmallMapSorted",
+				"SmallMapCompact", "SmallMapShaped", "HashMap", "THashMap" })
+		String implementation;
+
+		@Param({ "1", "2", "3", "4", "5", "6", "8", "16", "32" })
+		int size;
+
+		Map<String, Integer> map;
+		/**
+		 * Equal map of the same implementation.
+		 */
+		Map<String, Integer> copy;
+		String[] present;
+		String[] absent;
+
+		@Setup
+		public void setUp() {
+			String[] keys = keys(size, "present");
+			map = newMap(implementation);
+			for (int i = 0; i < size; ++i) {
+				map.put(keys[i], i);
+			}
+			copy = newMap(implementation);
+			copy.putAll(map);
+
+			Random random = new Random(size);
+			present = new String[PROBES];
+			absent = new String[PROBES];
+			String[] missing = keys(PROBES, "missing");
+			for (int i = 0; i < PROBES; ++i) {
+				present[i] = new String(keys[random.nextInt(size)]);
+				absent[i] = new String(missing[i]);
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public void get(ReadState state, Blackhole blackhole) {
+		Map<String, Integer> map = state.map;
+		for (String probe : state.probes) {
+			blackhole.consume(map.get(probe));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public void containsKey(ReadState state, Blackhole blackhole) {
+		Map<String, Integer> map = state.map;
+		for (String probe : state.probes) {
+			blackhole.consume(map.containsKey(probe));
+		}
+	}
+
+	/**
+	 * Full iteration over entries, reported per map (not per entry).
+	 */
+	@Benchmark
+	public int iterate(ReadState state) {
+		int sum = 0;
+		for (Map.Entry<String, Integer> entry : state.map.entrySet()) {
+			sum += entry.getKey().length() + entry.getValue();
+		}
+		return sum;
+	}
+
+	/**
+	 * Replaces values of existing keys.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public void put(WriteState state, Blackhole blackhole) {
+		Map<String, Integer> map = state.map;
+		Integer value = Integer.valueOf(PROBES);
+		for (String key : state.present) {
+			blackhole.consume(map.put(key, value));
+		}
+	}
+
+	/**
+	 * Inserts new key and removes it again, so the map keeps its size. For
+	 * SmallMap at the threshold this includes switching to backing map once.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public void putAndRemove(WriteState state, Blackhole blackhole) {
+		Map<String, Integer> map = state.map;
+		Integer value = Integer.valueOf(PROBES);
+		for (String key : state.absent) {
+			map.put(key, value);
+			blackhole.consume(map.remove(key));
+		}
+	}
+
+	/**
+	 * Removes keys that are not present.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(PROBES)
+	public void removeMissing(WriteState state, Blackhole blackhole) {
+		Map<String, Integer> map = state.map;
+		for (String key : state.absent) {
+			blackhole.consume(map.remove(key));
+		}
+	}
+
+	/**
+	 * Copies map into new empty map of the same implementation, reported per
+	 * map.
+	 */
+	@Benchmark
+	public Map<String, Integer> putAllToEmpty(WriteState state) {
+		Map<String, Integer> copy = newMap(state.implementation);
+		copy.putAll(state.map);
+		return copy;
+	}
+
+	/**
+	 * Compares map with its equal copy, reported per map.
+	 */
+	@Benchmark
+	public boolean equalsCopy(WriteState state) {
+		return state.map.equals(state.copy);
+	}
+}
@@ -0,0 +1,104 @@
+package eu.blacksoft.smallmap;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Learns threshold of SmallMaps from measured cost of their lookups.
+ *
+ * A small fraction of lookups in arrays is timed: the linear scan (cost of
+ * single comparison and how far scans get on average) and hashing of the key.
+ * Threshold is the size at which a scan costs as much as a hash lookup would,
+ * i.e. hashing plus one comparison plus fixed cost of hash table access.
+ *
+ * Shared by all maps created from one factory (and factories derived from it),
+ * so they learn together. Statistics are updated under lock, but only for
+ * sampled lookups; threshold itself is read without locking.
+ */
+final class AdaptiveThreshold {
+    /**
+     * Sampled lookup is repeated to amortize cost of reading the clock.
+     */
+    static final int SAMPLE_REPEATS = 8;
+    /**
+     * One in 256 lookups is sampled.
+     */
+    private static final int SAMPLE_MASK = 255;
+    /**
+     * Samples needed before first change of threshold.
+     */
+    private static final int WARMUP_SAMPLES = 16;
+    /**
+     * Weight of new sample in moving averages.
+     */
+    private static final double ALPHA = 1.0 / 16;
+    /**
+     * Cost of finding bucket and loading its entry in HashMap, besides hashing
+     * and comparing the key.
+     */
+    private static final double HASH_LOOKUP_NANOS = 4;
+    private static final double MIN_NANOS = 0.1;
+
+    final int minThreshold;
+    final int maxThreshold;
+    private volatile int threshold;
+
+    private int samples;
+    private double comparisonNanos;
+    private double hashNanos;
+    private double scanFraction;
+
+    /**
+     * Keeps results of sampled hashing alive.
+     */
+    int sink;
+
+    AdaptiveThreshold(int initialThreshold, int minThreshold, int maxThreshold) {
+        if (minThreshold < 0 || minThreshold > maxThreshold) {
+            throw new IllegalArgumentException("Invalid threshold range: " + minThreshold + ".."
+                    + maxThreshold);
+        }
+        this.minThreshold = minThreshold;
+        this.maxThreshold = maxThreshold;
+        this.threshold = clamp(initialThreshold);
+    }
+
+    int threshold() {
+        return threshold;
+    }
+
+    boolean shouldSample() {
+        return (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0;
+    }
+
+    /**
+     * @param size
+     *            number of entries in scanned arrays
+     * @param comparisons
+     *            number of keys compared by the scan
+     * @param scanNanos
+     *            duration of single scan
+     * @param hashNanos
+     *            duration of single hashing of the key
+     */
+    synchronized void record(int size, int comparisons, double scanNanos, double hashNanos) {
+        double weight = samples < WARMUP_SAMPLES ? 1.0 / (samples + 1) : ALPHA;
+        this.comparisonNanos += weight * (scanNanos / comparisons - this.comparisonNanos);
+        this.hashNanos += weight * (hashNanos - this.hashNanos);
+        this.scanFraction += weight * ((double) comparisons / size - this.scanFraction);
+        if (++samples >= WARMUP_SAMPLES) {
+            threshold = clamp(breakEven());
+        }
+    }
+
+    private int breakEven() {
+        double comparison = Math.max(comparisonNanos, MIN_NANOS);
+        double hashLookup = hashNanos + comparison + HASH_LOOKUP_NANOS;
+        // every scan compares at least one key, so fraction is never 0
+        double perEntry = comparison * scanFraction;
+        return (int) Math.min(Math.round(hashLookup / perEntry), Integer.MAX_VALUE);
+    }
+
+    private int clamp(int value) {
+        return Math.max(minThreshold, Math.min(maxThreshold, value));
+    }
+}
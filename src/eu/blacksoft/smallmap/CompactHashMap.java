@@ -0,0 +1,546 @@
+package eu.blacksoft.smallmap;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import com.google.common.base.Equivalence;
+
+/**
+ * Insertion ordered hash map without objects per entry. Used as backing map of
+ * SmallMaps created with {@link SmallMapFactory#withCompactBackingMap()}.
+ *
+ * Entries are stored in insertion order in a dense array of interleaved keys
+ * and values, the same layout as arrays of SmallMap, so SmallMap hands its
+ * arrays over when it switches to backing map. Hash codes of keys are kept in
+ * a parallel int array. Separate open addressing index maps hashes to
+ * positions in the dense array. Index holds 16 bit positions (char[]) while
+ * they fit and int[] afterwards.
+ *
+ * Removal leaves a tombstone in the dense array, so iteration order is kept
+ * and iterators don't skip entries. Tombstones are dropped when the dense
+ * array is full and gets compacted or grown.
+ *
+ * Does not accept null keys or values, iterators are not fail-fast.
+ */
+class CompactHashMap<K, V> extends AbstractMap<K, V> {
+    private static final Object REMOVED = new Object();
+    private static final int MIN_CAPACITY = 4;
+    /**
+     * Positions are stored in index increased by one, 0 marks empty slot.
+     */
+    private static final int MAX_NARROW_POSITION = Character.MAX_VALUE - 1;
+
+    private final Equivalence<Object> equivalence;
+    /**
+     * Keys and values interleaved, in insertion order. Key of removed entry is
+     * {@link #REMOVED}.
+     */
+    private Object[] entries;
+    private int[] hashes;
+    private char[] narrowIndex;
+    private int[] wideIndex;
+    /**
+     * Number of positions taken in entries, including removed ones.
+     */
+    private int used;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    CompactHashMap(Equivalence<?> equivalence, int initialSize) {
+        this.equivalence = (Equivalence<Object>) equivalence;
+        int capacity = Math.max(initialSize, MIN_CAPACITY);
+        this.entries = new Object[capacity << 1];
+        this.hashes = new int[capacity];
+        rebuildIndex();
+    }
+
+    /**
+     * Creates map taking over given arrays with distinct keys.
+     *
+     * @param table
+     *            keys and values interleaved, at least count entries long
+     * @param hashes
+     *            hashes of keys computed by equivalence, or null
+     */
+    @SuppressWarnings("unchecked")
+    CompactHashMap(Equivalence<?> equivalence, Object[] table, int[] hashes, int count) {
+        this.equivalence = (Equivalence<Object>) equivalence;
+        this.entries = table;
+        if (hashes == null) {
+            hashes = new int[table.length >> 1];
+            for (int i = 0; i < count; ++i) {
+                hashes[i] = this.equivalence.hash(table[i << 1]);
+            }
+        }
+        this.hashes = hashes;
+        this.used = count;
+        this.size = count;
+        rebuildIndex();
+    }
+
+    /**
+     * @return MapCreator of CompactHashMaps comparing keys with given
+     *         equivalence
+     */
+    static MapCreator creator(Equivalence<?> equivalence) {
+        return new Creator(equivalence);
+    }
+
+    /**
+     * Recognized by SmallMap, which hands its arrays over to the new map
+     * instead of copying them.
+     */
+    static final class Creator implements MapCreator {
+        final Equivalence<?> equivalence;
+
+        Creator(Equivalence<?> equivalence) {
+            this.equivalence = equivalence;
+        }
+
+        @Override
+        public <K, V> Map<K, V> create(int initialSize) {
+            return new CompactHashMap<K, V>(equivalence, initialSize);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != -1;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < used; ++i) {
+            if (entries[i << 1] != REMOVED && entries[(i << 1) + 1].equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        int pos = find(key);
+        return pos == -1 ? null : valueAt(pos);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("This map does not accept null keys or values.");
+        }
+        int hash = equivalence.hash(key);
+        int pos = find(key, hash);
+        if (pos != -1) {
+            V previous = valueAt(pos);
+            entries[(pos << 1) + 1] = value;
+            return previous;
+        }
+        if (used == hashes.length) {
+            resize();
+        }
+        pos = used++;
+        entries[pos << 1] = key;
+        entries[(pos << 1) + 1] = value;
+        hashes[pos] = hash;
+        addToIndex(pos);
+        size++;
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int pos = find(key);
+        if (pos == -1) {
+            return null;
+        }
+        V value = valueAt(pos);
+        removeAt(pos);
+        return value;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(entries, 0, used << 1, null);
+        if (narrowIndex != null) {
+            Arrays.fill(narrowIndex, (char) 0);
+        } else {
+            Arrays.fill(wideIndex, 0);
+        }
+        used = 0;
+        size = 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (int i = 0; i < used; ++i) {
+            if (entries[i << 1] != REMOVED) {
+                action.accept(keyAt(i), valueAt(i));
+            }
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new KeySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new Values();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    @SuppressWarnings("unchecked")
+    private K keyAt(int pos) {
+        return (K) entries[pos << 1];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int pos) {
+        return (V) entries[(pos << 1) + 1];
+    }
+
+    private int find(Object key) {
+        if (key == null) {
+            throw new NullPointerException("This map does not accept null keys or values.");
+        }
+        return find(key, equivalence.hash(key));
+    }
+
+    /**
+     * @return position of entry with given key or -1
+     */
+    private int find(Object key, int hash) {
+        int mask = indexLength() - 1;
+        for (int slot = spread(hash) & mask;; slot = (slot + 1) & mask) {
+            int pos = positionAt(slot);
+            if (pos == -1) {
+                return -1;
+            }
+            Object candidate = entries[pos << 1];
+            if (hashes[pos] == hash && candidate != REMOVED
+                    && equivalence.equivalent(candidate, key)) {
+                return pos;
+            }
+        }
+    }
+
+    private void removeAt(int pos) {
+        // index keeps pointing at the tombstone, so probing goes on past it
+        entries[pos << 1] = REMOVED;
+        entries[(pos << 1) + 1] = null;
+        if (--size == 0) {
+            clear();
+        }
+    }
+
+    /**
+     * Makes room for next entry: drops tombstones and grows entries when they
+     * are more than half full.
+     */
+    private void resize() {
+        int capacity = hashes.length;
+        int newCapacity = Math.max(size < capacity >> 1 ? capacity : capacity << 1, MIN_CAPACITY);
+        Object[] newEntries = new Object[newCapacity << 1];
+        int[] newHashes = new int[newCapacity];
+        int count = 0;
+        for (int i = 0; i < used; ++i) {
+            if (entries[i << 1] != REMOVED) {
+                newEntries[count << 1] = entries[i << 1];
+                newEntries[(count << 1) + 1] = entries[(i << 1) + 1];
+                newHashes[count++] = hashes[i];
+            }
+        }
+        entries = newEntries;
+        hashes = newHashes;
+        used = count;
+        rebuildIndex();
+    }
+
+    /**
+     * Allocates index for current capacity, at most 2/3 full when entries are,
+     * and fills it with used positions.
+     */
+    private void rebuildIndex() {
+        int capacity = hashes.length;
+        int length = Integer.highestOneBit(Math.max(capacity + (capacity >> 1), 1) << 1);
+        if (capacity <= MAX_NARROW_POSITION) {
+            narrowIndex = new char[length];
+            wideIndex = null;
+        } else {
+            wideIndex = new int[length];
+            narrowIndex = null;
+        }
+        for (int i = 0; i < used; ++i) {
+            if (entries[i << 1] != REMOVED) {
+                addToIndex(i);
+            }
+        }
+    }
+
+    private void addToIndex(int pos) {
+        int mask = indexLength() - 1;
+        int slot = spread(hashes[pos]) & mask;
+        while (positionAt(slot) != -1) {
+            slot = (slot + 1) & mask;
+        }
+        if (narrowIndex != null) {
+            narrowIndex[slot] = (char) (pos + 1);
+        } else {
+            wideIndex[slot] = pos + 1;
+        }
+    }
+
+    private int indexLength() {
+        return narrowIndex != null ? narrowIndex.length : wideIndex.length;
+    }
+
+    /**
+     * @return position stored in index slot or -1 for empty slot
+     */
+    private int positionAt(int slot) {
+        return (narrowIndex != null ? narrowIndex[slot] : wideIndex[slot]) - 1;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Iterates over positions in insertion order, skipping removed entries.
+     */
+    private abstract class DenseIterator<T> implements Iterator<T> {
+        private int next = skipRemoved(0);
+        private int current = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < used;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = skipRemoved(next + 1);
+            return get(current);
+        }
+
+        @Override
+        public void remove() {
+            if (current == -1 || entries[current << 1] == REMOVED) {
+                throw new IllegalStateException();
+            }
+            removeAt(current);
+            current = -1;
+        }
+
+        private int skipRemoved(int pos) {
+            while (pos < used && entries[pos << 1] == REMOVED) {
+                pos++;
+            }
+            return pos;
+        }
+
+        abstract T get(int pos);
+    }
+
+    private class KeySet extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            return new DenseIterator<K>() {
+                @Override
+                K get(int pos) {
+                    return keyAt(pos);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return CompactHashMap.this.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            CompactHashMap.this.clear();
+        }
+    }
+
+    private class Values extends AbstractCollection<V> {
+        @Override
+        public Iterator<V> iterator() {
+            return new DenseIterator<V>() {
+                @Override
+                V get(int pos) {
+                    return valueAt(pos);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            CompactHashMap.this.clear();
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new DenseIterator<Map.Entry<K, V>>() {
+                @Override
+                Map.Entry<K, V> get(int pos) {
+                    return new DenseEntry(pos);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (entry.getKey() == null) {
+                return false;
+            }
+            V value = get(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            CompactHashMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            CompactHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Entry referencing position in dense array, writes through to the map.
+     * When entries were compacted since, its key is looked up instead.
+     */
+    private class DenseEntry implements Map.Entry<K, V> {
+        private final int pos;
+        private final K key;
+
+        DenseEntry(int pos) {
+            this.pos = pos;
+            this.key = keyAt(pos);
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            if (isAtPosition()) {
+                return valueAt(pos);
+            }
+            V value = get(key);
+            if (value == null) {
+                throw new IllegalStateException("Entry was removed from map.");
+            }
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            if (value == null) {
+                throw new NullPointerException("This map does not accept null keys or values.");
+            }
+            if (isAtPosition()) {
+                V previous = valueAt(pos);
+                entries[(pos << 1) + 1] = value;
+                return previous;
+            }
+            if (!containsKey(key)) {
+                throw new IllegalStateException("Entry was removed from map.");
+            }
+            return put(key, value);
+        }
+
+        private boolean isAtPosition() {
+            return pos < used && entries[pos << 1] == key;
+        }
+
+        @Override
+        public int hashCode() {
+            return equivalence.hash(key) ^ getValue().hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            return equivalence.equivalent(key, other.getKey())
+                    && getValue().equals(other.getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+}
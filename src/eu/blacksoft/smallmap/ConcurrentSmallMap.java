@@ -0,0 +1,396 @@
+package eu.blacksoft.smallmap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+
+/**
+ * Thread-safe variant of {@link SmallMap}.
+ *
+ * While small, entries are kept in immutable array of interleaved keys and
+ * values sized exactly to the number of entries. Every update copies the array
+ * and publishes the copy with compare-and-set, retrying when another thread
+ * was faster, so reads never lock or wait. When number of entries exceeds
+ * the threshold the map switches to ConcurrentHashMap and stays with it (also
+ * after clear), as threads may still be updating it.
+ *
+ * Fits maps that are read much more often than they are updated, e.g.
+ * metadata shared between threads. Every update in array mode allocates a
+ * copy of the arrays.
+ *
+ * Keys are compared with equals. Does not accept null keys or values.
+ * Iterators in array mode walk snapshot taken when they were created and
+ * return immutable entries.
+ */
+public class ConcurrentSmallMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    private static final Object[] EMPTY = {};
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ConcurrentSmallMap, Object> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(ConcurrentSmallMap.class, Object.class,
+                    "state");
+
+    private final int threshold;
+    /**
+     * Object[] of interleaved keys and values in array mode, ConcurrentHashMap
+     * afterwards.
+     */
+    private volatile Object state = EMPTY;
+
+    /**
+     * Create new map with default threshold of 5.
+     */
+    public ConcurrentSmallMap() {
+        this(SmallMapFactory.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param threshold
+     *            maximal size of elements stored in internal arrays. When this
+     *            is exceeded it will switch to ConcurrentHashMap.
+     */
+    public ConcurrentSmallMap(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold can't be negative: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    @Override
+    public int size() {
+        Object s = state;
+        if (s instanceof Object[]) {
+            return ((Object[]) s).length >> 1;
+        }
+        return backingMap(s).size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        checkNullArgument(value);
+        Object s = state;
+        if (s instanceof Object[]) {
+            Object[] table = (Object[]) s;
+            for (int i = 1; i < table.length; i += 2) {
+                if (table[i].equals(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return backingMap(s).containsValue(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        checkNullArgument(key);
+        Object s = state;
+        if (s instanceof Object[]) {
+            Object[] table = (Object[]) s;
+            int idx = findKey(table, key);
+            return idx == -1 ? null : (V) table[idx + 1];
+        }
+        return backingMap(s).get(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return put(key, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(K key, V value, boolean onlyIfAbsent) {
+        checkNullArgument(key);
+        checkNullArgument(value);
+        while (true) {
+            Object s = state;
+            if (!(s instanceof Object[])) {
+                ConcurrentHashMap<K, V> map = backingMap(s);
+                return onlyIfAbsent ? map.putIfAbsent(key, value) : map.put(key, value);
+            }
+            Object[] table = (Object[]) s;
+            int idx = findKey(table, key);
+            if (idx != -1) {
+                V previous = (V) table[idx + 1];
+                if (onlyIfAbsent || previous == value) {
+                    return previous;
+                }
+                Object[] copy = table.clone();
+                copy[idx + 1] = value;
+                if (STATE.compareAndSet(this, s, copy)) {
+                    return previous;
+                }
+            } else if (table.length >> 1 >= threshold) {
+                ConcurrentHashMap<K, V> map = new ConcurrentHashMap<K, V>(
+                        (table.length >> 1) + 1);
+                for (int i = 0; i < table.length; i += 2) {
+                    map.put((K) table[i], (V) table[i + 1]);
+                }
+                map.put(key, value);
+                if (STATE.compareAndSet(this, s, map)) {
+                    return null;
+                }
+            } else {
+                Object[] copy = new Object[table.length + 2];
+                System.arraycopy(table, 0, copy, 0, table.length);
+                copy[table.length] = key;
+                copy[table.length + 1] = value;
+                if (STATE.compareAndSet(this, s, copy)) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        return remove(key, null, true);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        checkNullArgument(key);
+        // no key maps to null, like in ConcurrentHashMap above threshold
+        return value != null && remove(key, value, false) != null;
+    }
+
+    /**
+     * @param expected
+     *            value that has to be mapped to key, unless anyValue is set
+     * @return removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    private V remove(Object key, Object expected, boolean anyValue) {
+        checkNullArgument(key);
+        while (true) {
+            Object s = state;
+            if (!(s instanceof Object[])) {
+                ConcurrentHashMap<K, V> map = backingMap(s);
+                if (anyValue) {
+                    return map.remove(key);
+                }
+                return map.remove(key, expected) ? (V) expected : null;
+            }
+            Object[] table = (Object[]) s;
+            int idx = findKey(table, key);
+            if (idx == -1) {
+                return null;
+            }
+            V previous = (V) table[idx + 1];
+            if (!anyValue && !previous.equals(expected)) {
+                return null;
+            }
+            Object[] copy = EMPTY;
+            if (table.length > 2) {
+                copy = new Object[table.length - 2];
+                System.arraycopy(table, 0, copy, 0, idx);
+                System.arraycopy(table, idx + 2, copy, idx, table.length - idx - 2);
+            }
+            if (STATE.compareAndSet(this, s, copy)) {
+                return previous;
+            }
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        checkNullArgument(oldValue);
+        return replace(key, oldValue, newValue, false) != null;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        return replace(key, null, value, true);
+    }
+
+    /**
+     * @param expected
+     *            value that has to be mapped to key, unless anyValue is set
+     * @return replaced value or null
+     */
+    @SuppressWarnings("unchecked")
+    private V replace(K key, V expected, V value, boolean anyValue) {
+        checkNullArgument(key);
+        checkNullArgument(value);
+        while (true) {
+            Object s = state;
+            if (!(s instanceof Object[])) {
+                ConcurrentHashMap<K, V> map = backingMap(s);
+                if (anyValue) {
+                    return map.replace(key, value);
+                }
+                return map.replace(key, expected, value) ? expected : null;
+            }
+            Object[] table = (Object[]) s;
+            int idx = findKey(table, key);
+            if (idx == -1) {
+                return null;
+            }
+            V previous = (V) table[idx + 1];
+            if (!anyValue && !previous.equals(expected)) {
+                return null;
+            }
+            Object[] copy = table.clone();
+            copy[idx + 1] = value;
+            if (STATE.compareAndSet(this, s, copy)) {
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Removes all entries. Map that switched to ConcurrentHashMap keeps it.
+     */
+    @Override
+    public void clear() {
+        while (true) {
+            Object s = state;
+            if (!(s instanceof Object[])) {
+                backingMap(s).clear();
+                return;
+            }
+            if (STATE.compareAndSet(this, s, EMPTY)) {
+                return;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Object s = state;
+        if (s instanceof Object[]) {
+            Object[] table = (Object[]) s;
+            for (int i = 0; i < table.length; i += 2) {
+                action.accept((K) table[i], (V) table[i + 1]);
+            }
+            return;
+        }
+        backingMap(s).forEach(action);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConcurrentHashMap<K, V> backingMap(Object s) {
+        return (ConcurrentHashMap<K, V>) s;
+    }
+
+    /**
+     * @return index of key in table or -1
+     */
+    private static int findKey(Object[] table, Object key) {
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void checkNullArgument(Object key) {
+        if (key == null) {
+            throw new NullPointerException("This map does not accept null keys or values.");
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            Object s = state;
+            if (!(s instanceof Object[])) {
+                return backingMap(s).entrySet().iterator();
+            }
+            final Object[] table = (Object[]) s;
+            return new Iterator<Map.Entry<K, V>>() {
+                private int next = 0;
+                private Object current;
+
+                @Override
+                public boolean hasNext() {
+                    return next < table.length;
+                }
+
+                @SuppressWarnings("unchecked")
+                @Override
+                public Map.Entry<K, V> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    current = table[next];
+                    Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<K, V>(
+                            (K) table[next], (V) table[next + 1]);
+                    next += 2;
+                    return entry;
+                }
+
+                @Override
+                public void remove() {
+                    if (current == null) {
+                        throw new IllegalStateException();
+                    }
+                    ConcurrentSmallMap.this.remove(current);
+                    current = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentSmallMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (entry.getKey() == null) {
+                return false;
+            }
+            V value = get(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return entry.getKey() != null && entry.getValue() != null
+                    && ConcurrentSmallMap.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            ConcurrentSmallMap.this.clear();
+        }
+    }
+}
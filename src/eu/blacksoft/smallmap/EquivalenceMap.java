@@ -0,0 +1,157 @@
+package eu.blacksoft.smallmap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Equivalence;
+import com.google.common.collect.Maps;
+
+/**
+ * HashMap comparing keys with custom Equivalence. Used as backing map of
+ * SmallMap created with equivalence other than equals or identity.
+ *
+ * Keys are stored wrapped in {@link Equivalence.Wrapper}, views unwrap them.
+ */
+class EquivalenceMap<K, V> extends AbstractMap<K, V> {
+
+    private final Equivalence<Object> equivalence;
+    private final Map<Equivalence.Wrapper<Object>, V> delegate;
+    private Set<Map.Entry<K, V>> entrySet;
+
+    @SuppressWarnings("unchecked")
+    EquivalenceMap(Equivalence<?> equivalence, int initialSize) {
+        this.equivalence = (Equivalence<Object>) equivalence;
+        this.delegate = Maps.newHashMapWithExpectedSize(initialSize);
+    }
+
+    /**
+     * @return MapCreator of EquivalenceMaps with given equivalence
+     */
+    static MapCreator creator(final Equivalence<?> equivalence) {
+        return new MapCreator() {
+            @Override
+            public <K, V> Map<K, V> create(int initialSize) {
+                return new EquivalenceMap<K, V>(equivalence, initialSize);
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return delegate.containsKey(equivalence.wrap(key));
+    }
+
+    @Override
+    public V get(Object key) {
+        return delegate.get(equivalence.wrap(key));
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return delegate.put(equivalence.wrap((Object) key), value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return delegate.remove(equivalence.wrap(key));
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            final Iterator<Map.Entry<Equivalence.Wrapper<Object>, V>> iterator = delegate
+                    .entrySet().iterator();
+            return new Iterator<Map.Entry<K, V>>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    return new UnwrappingEntry(iterator.next());
+                }
+
+                @Override
+                public void remove() {
+                    iterator.remove();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+
+        @Override
+        public void clear() {
+            delegate.clear();
+        }
+    }
+
+    private class UnwrappingEntry implements Map.Entry<K, V> {
+        private final Map.Entry<Equivalence.Wrapper<Object>, V> entry;
+
+        UnwrappingEntry(Map.Entry<Equivalence.Wrapper<Object>, V> entry) {
+            this.entry = entry;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public K getKey() {
+            return (K) entry.getKey().get();
+        }
+
+        @Override
+        public V getValue() {
+            return entry.getValue();
+        }
+
+        @Override
+        public V setValue(V value) {
+            return entry.setValue(value);
+        }
+
+        @Override
+        public int hashCode() {
+            return equivalence.hash(getKey()) ^ getValue().hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            return equivalence.equivalent(getKey(), other.getKey())
+                    && getValue().equals(other.getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
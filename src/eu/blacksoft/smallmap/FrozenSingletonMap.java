@@ -0,0 +1,114 @@
+package eu.blacksoft.smallmap;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Equivalence;
+
+/**
+ * Immutable map with single entry created by {@link SmallMap#freeze()}.
+ *
+ * Holds the entry in its own fields and implements Map directly (without
+ * fields for cached views of AbstractMap), so it takes no more memory than the
+ * singleton maps of other libraries.
+ */
+final class FrozenSingletonMap<K, V> implements Map<K, V> {
+    private final Equivalence<Object> equivalence;
+    private final K key;
+    private final V value;
+
+    FrozenSingletonMap(Equivalence<Object> equivalence, K key, V value) {
+        this.equivalence = equivalence;
+        this.key = key;
+        this.value = value;
+    }
+
+    @Override
+    public int size() {
+        return 1;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return this.value.equals(value);
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            throw new NullPointerException("This map does not accept null keys or values.");
+        }
+        return equivalence.equivalent(this.key, key) ? value : null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return Collections.singleton(key);
+    }
+
+    @Override
+    public Collection<V> values() {
+        return Collections.singletonList(value);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return Collections.<Map.Entry<K, V>> singleton(new AbstractMap.SimpleImmutableEntry<K, V>(
+                key, value));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof Map)) {
+            return false;
+        }
+        Map<?, ?> other = (Map<?, ?>) obj;
+        return other.size() == 1 && value.equals(other.get(key));
+    }
+
+    @Override
+    public int hashCode() {
+        return equivalence.hash(key) ^ value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "{" + key + "=" + value + "}";
+    }
+}
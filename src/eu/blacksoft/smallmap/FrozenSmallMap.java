@@ -0,0 +1,329 @@
+package eu.blacksoft.smallmap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import com.google.common.base.Equivalence;
+
+/**
+ * Immutable map created by {@link SmallMap#freeze()}, see also
+ * {@link FrozenSingletonMap}.
+ *
+ * Keys and values are interleaved in single array with exactly one slot per
+ * entry. Up to {@link #MAX_LINEAR_SIZE} entries it is scanned linearly like
+ * arrays of SmallMap and keeps their order. Larger maps place entries with
+ * minimal perfect hash (hash and displace): keys are split into buckets, every
+ * bucket has a seed chosen so that its keys land in free slots. Lookup hashes
+ * the key, reads seed of its bucket and compares single candidate key, misses
+ * included. Keys with equal hashes can't be told apart by any seed, maps with
+ * such keys use open addressing table twice as big instead. Iteration order of
+ * maps bigger than {@link #MAX_LINEAR_SIZE} is unspecified.
+ */
+final class FrozenSmallMap<K, V> extends AbstractMap<K, V> {
+    static final int MAX_LINEAR_SIZE = 8;
+    /**
+     * Average number of keys per bucket, higher values need less memory for
+     * seeds but longer search for them.
+     */
+    private static final int KEYS_PER_BUCKET = 4;
+    private static final int MAX_SEED = 1 << 20;
+    /**
+     * Empty maps don't look anything up, so they can share one instance.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final FrozenSmallMap EMPTY = new FrozenSmallMap<Object, Object>(null,
+            new Object[0], null, 0);
+
+    private final Equivalence<Object> equivalence;
+    /**
+     * Exactly size entries, except for open addressing which leaves empty
+     * slots.
+     */
+    private final Object[] table;
+    /**
+     * Seeds of buckets, null when table is scanned linearly or probed.
+     */
+    private final int[] seeds;
+    private final int size;
+
+    private FrozenSmallMap(Equivalence<Object> equivalence, Object[] table, int[] seeds,
+            int size) {
+        this.equivalence = equivalence;
+        this.table = table;
+        this.seeds = seeds;
+        this.size = size;
+    }
+
+    /**
+     * @param table
+     *            interleaved distinct keys and values, exactly size entries
+     *            long, taken over by the map
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> Map<K, V> of(Equivalence<Object> equivalence, Object[] table) {
+        int size = table.length >> 1;
+        if (size == 0) {
+            return EMPTY;
+        }
+        if (size == 1) {
+            return new FrozenSingletonMap<K, V>(equivalence, (K) table[0], (V) table[1]);
+        }
+        if (size <= MAX_LINEAR_SIZE) {
+            return new FrozenSmallMap<K, V>(equivalence, table, null, size);
+        }
+        int[] hashes = new int[size];
+        for (int i = 0; i < size; ++i) {
+            hashes[i] = equivalence.hash(table[i << 1]);
+        }
+        int[] sorted = hashes.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < size; ++i) {
+            if (sorted[i - 1] == sorted[i]) {
+                return probing(equivalence, table, hashes);
+            }
+        }
+        for (int buckets = Math.max(1, size / KEYS_PER_BUCKET); buckets <= size; buckets <<= 1) {
+            Object[] placed = new Object[table.length];
+            int[] seeds = place(table, hashes, buckets, placed);
+            if (seeds != null) {
+                return new FrozenSmallMap<K, V>(equivalence, placed, seeds, size);
+            }
+        }
+        return probing(equivalence, table, hashes);
+    }
+
+    /**
+     * @return map with open addressing table at most half full
+     */
+    private static <K, V> FrozenSmallMap<K, V> probing(Equivalence<Object> equivalence,
+            Object[] table, int[] hashes) {
+        int size = hashes.length;
+        int mask = Integer.highestOneBit(size) * 4 - 1;
+        Object[] probed = new Object[(mask + 1) << 1];
+        for (int i = 0; i < size; ++i) {
+            int slot = spread(hashes[i]) & mask;
+            while (probed[slot << 1] != null) {
+                slot = (slot + 1) & mask;
+            }
+            probed[slot << 1] = table[i << 1];
+            probed[(slot << 1) + 1] = table[(i << 1) + 1];
+        }
+        return new FrozenSmallMap<K, V>(equivalence, probed, null, size);
+    }
+
+    /**
+     * Finds seed for every bucket, biggest buckets first while there is most
+     * room for them, and moves entries to their slots.
+     *
+     * @return seeds or null when some bucket could not be placed
+     */
+    private static int[] place(Object[] table, int[] hashes, int buckets, Object[] placed) {
+        int size = hashes.length;
+        // entries of each bucket, linked through next
+        int[] first = new int[buckets];
+        int[] next = new int[size];
+        int[] bucketSize = new int[buckets];
+        Arrays.fill(first, -1);
+        for (int i = 0; i < size; ++i) {
+            int bucket = bucket(hashes[i], buckets);
+            next[i] = first[bucket];
+            first[bucket] = i;
+            bucketSize[bucket]++;
+        }
+        Integer[] order = new Integer[buckets];
+        for (int i = 0; i < buckets; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> bucketSize[b] - bucketSize[a]);
+
+        int[] seeds = new int[buckets];
+        boolean[] taken = new boolean[size];
+        int[] slots = new int[size];
+        for (int bucket : order) {
+            if (first[bucket] == -1) {
+                break;
+            }
+            int seed = findSeed(hashes, first[bucket], next, taken, slots);
+            if (seed == -1) {
+                return null;
+            }
+            seeds[bucket] = seed;
+            for (int i = first[bucket]; i != -1; i = next[i]) {
+                int slot = slot(hashes[i], seed, size);
+                taken[slot] = true;
+                placed[slot << 1] = table[i << 1];
+                placed[(slot << 1) + 1] = table[(i << 1) + 1];
+            }
+        }
+        return seeds;
+    }
+
+    /**
+     * @return seed placing all entries of bucket to distinct free slots or -1
+     */
+    private static int findSeed(int[] hashes, int first, int[] next, boolean[] taken,
+            int[] slots) {
+        int size = hashes.length;
+        seeds: for (int seed = 0; seed < MAX_SEED; ++seed) {
+            int count = 0;
+            for (int i = first; i != -1; i = next[i]) {
+                int slot = slot(hashes[i], seed, size);
+                if (taken[slot]) {
+                    continue seeds;
+                }
+                for (int j = 0; j < count; ++j) {
+                    if (slots[j] == slot) {
+                        continue seeds;
+                    }
+                }
+                slots[count++] = slot;
+            }
+            return seed;
+        }
+        return -1;
+    }
+
+    private static int bucket(int hash, int buckets) {
+        return range(hash * 0x85EBCA6B, buckets);
+    }
+
+    private static int slot(int hash, int seed, int size) {
+        int h = (hash ^ seed) * 0x9E3779B9;
+        return range(h ^ (h >>> 16), size);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Maps hash uniformly to [0, n) without division.
+     */
+    private static int range(int hash, int n) {
+        return (int) (((hash & 0xFFFFFFFFL) * n) >>> 32);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            throw new NullPointerException("This map does not accept null keys or values.");
+        }
+        if (seeds != null) {
+            int hash = equivalence.hash(key);
+            int slot = slot(hash, seeds[bucket(hash, seeds.length)], size) << 1;
+            return equivalence.equivalent(table[slot], key) ? (V) table[slot + 1] : null;
+        }
+        if (table.length == size << 1) {
+            for (int i = 0; i < table.length; i += 2) {
+                if (equivalence.equivalent(table[i], key)) {
+                    return (V) table[i + 1];
+                }
+            }
+            return null;
+        }
+        int mask = (table.length >> 1) - 1;
+        for (int slot = spread(equivalence.hash(key)) & mask;; slot = (slot + 1) & mask) {
+            Object candidate = table[slot << 1];
+            if (candidate == null) {
+                return null;
+            }
+            if (equivalence.equivalent(candidate, key)) {
+                return (V) table[(slot << 1) + 1];
+            }
+        }
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 1; i < table.length; i += 2) {
+            if (table[i] != null && table[i].equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) {
+                action.accept((K) table[i], (V) table[i + 1]);
+            }
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = 0;
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) {
+                hashCode += equivalence.hash(table[i]) ^ table[i + 1].hashCode();
+            }
+        }
+        return hashCode;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new Iterator<Map.Entry<K, V>>() {
+                    private int next = skipEmpty(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < table.length;
+                    }
+
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public Map.Entry<K, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<K, V>(
+                                (K) table[next], (V) table[next + 1]);
+                        next = skipEmpty(next + 2);
+                        return entry;
+                    }
+
+                    private int skipEmpty(int idx) {
+                        while (idx < table.length && table[idx] == null) {
+                            idx += 2;
+                        }
+                        return idx;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
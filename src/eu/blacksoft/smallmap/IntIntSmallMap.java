@@ -0,0 +1,265 @@
+package eu.blacksoft.smallmap;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.procedure.TIntIntProcedure;
+
+/**
+ * Variant of {@link SmallMap} with primitive int keys and values.
+ *
+ * Nothing is boxed: keys and values are kept interleaved in single int[] and
+ * missing keys are reported with "no entry value" (0 by default). When number
+ * of elements exceeds threshold it switches to Trove's TIntIntHashMap.
+ *
+ * Main don'ts: - Is not thread-safe.
+ */
+public class IntIntSmallMap {
+    private static final int DEFAULT_SIZE = 5;
+
+    private boolean isBig = false;
+
+    private int maxIdx = 0;
+    /**
+     * Key of entry i is at 2 * i and its value at 2 * i + 1.
+     */
+    private final int[] table;
+    private final int noEntryValue;
+
+    private TIntIntMap backingMap = null;
+
+    /**
+     * Create new map with default threshold of 5 and 0 as no entry value.
+     */
+    public IntIntSmallMap() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Create new map with 0 as no entry value.
+     * 
+     * @param size
+     *            maximal size of elements stored in internal arrays. When this
+     *            is exceeded it will switch to backing map.
+     */
+    public IntIntSmallMap(int size) {
+        this(size, 0);
+    }
+
+    /**
+     * @param size
+     *            maximal size of elements stored in internal arrays. When this
+     *            is exceeded it will switch to backing map.
+     * @param noEntryValue
+     *            value returned by get, put and remove when there is no such
+     *            key
+     */
+    public IntIntSmallMap(int size, int noEntryValue) {
+        this.table = new int[size << 1];
+        this.noEntryValue = noEntryValue;
+    }
+
+    public int getNoEntryValue() {
+        return noEntryValue;
+    }
+
+    public int size() {
+        if (isBig) {
+            return backingMap.size();
+        }
+        return maxIdx;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(int key) {
+        if (isBig) {
+            return backingMap.containsKey(key);
+        }
+        return findIndex(table, maxIdx, key) != -1;
+    }
+
+    public boolean containsValue(int value) {
+        if (isBig) {
+            return backingMap.containsValue(value);
+        }
+        for (int i = 0; i < maxIdx; i++) {
+            if (table[(i << 1) + 1] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return value for given key or no entry value if there is no such key
+     */
+    public int get(int key) {
+        if (isBig) {
+            return backingMap.get(key);
+        }
+        int idx = findIndex(table, maxIdx, key);
+        if (idx != -1) {
+            return table[(idx << 1) + 1];
+        }
+        return noEntryValue;
+    }
+
+    /**
+     * @return previous value or no entry value if there was no such key
+     */
+    public int put(int key, int value) {
+        if (isBig) {
+            return backingMap.put(key, value);
+        }
+        int idx = findIndex(table, maxIdx, key);
+        if (idx == -1) {
+            if (maxIdx << 1 == table.length) {
+                convertToBackingMap();
+                return backingMap.put(key, value);
+            }
+            idx = maxIdx++;
+            table[idx << 1] = key;
+            table[(idx << 1) + 1] = value;
+            return noEntryValue;
+        }
+        int previous = table[(idx << 1) + 1];
+        table[(idx << 1) + 1] = value;
+        return previous;
+    }
+
+    /**
+     * Remove element from map. Like in {@link SmallMap#remove(Object)} backing
+     * map is not destroyed, use {@link #clear()} to switch back to arrays.
+     *
+     * @return value of removed key or no entry value if nothing was removed
+     */
+    public int remove(int key) {
+        if (isBig) {
+            return backingMap.remove(key);
+        }
+        int idx = findIndex(table, maxIdx, key);
+        if (idx == -1) {
+            return noEntryValue;
+        }
+        int value = table[(idx << 1) + 1];
+        int last = --maxIdx;
+        table[idx << 1] = table[last << 1];
+        table[(idx << 1) + 1] = table[(last << 1) + 1];
+        return value;
+    }
+
+    /**
+     * Remove all elements from map, destroy backing map if it was created and
+     * switch to arrays.
+     */
+    public void clear() {
+        if (isBig) {
+            backingMap = null;
+            isBig = false;
+        }
+        maxIdx = 0;
+    }
+
+    /**
+     * @return copy of keys in this map
+     */
+    public int[] keys() {
+        if (isBig) {
+            return backingMap.keys();
+        }
+        int[] keys = new int[maxIdx];
+        for (int i = 0; i < maxIdx; ++i) {
+            keys[i] = table[i << 1];
+        }
+        return keys;
+    }
+
+    /**
+     * Executes procedure for every entry without boxing.
+     *
+     * @return false if procedure returned false for some entry
+     */
+    public boolean forEachEntry(TIntIntProcedure procedure) {
+        if (isBig) {
+            return backingMap.forEachEntry(procedure);
+        }
+        for (int i = 0; i < maxIdx; ++i) {
+            if (!procedure.execute(table[i << 1], table[(i << 1) + 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof IntIntSmallMap)) {
+            return false;
+        }
+        final IntIntSmallMap other = (IntIntSmallMap) obj;
+        if (other.size() != size()) {
+            return false;
+        }
+        return forEachEntry(new TIntIntProcedure() {
+            @Override
+            public boolean execute(int key, int value) {
+                return other.containsKey(key) && other.get(key) == value;
+            }
+        });
+    }
+
+    @Override
+    public int hashCode() {
+        final int[] hashCode = new int[1];
+        forEachEntry(new TIntIntProcedure() {
+            @Override
+            public boolean execute(int key, int value) {
+                hashCode[0] += key ^ value;
+                return true;
+            }
+        });
+        return hashCode[0];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(isBig ? "[Big]{" : "[Small]{");
+        final int start = sb.length();
+        forEachEntry(new TIntIntProcedure() {
+            @Override
+            public boolean execute(int key, int value) {
+                if (sb.length() > start) {
+                    sb.append(", ");
+                }
+                sb.append(key).append('=').append(value);
+                return true;
+            }
+        });
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private void convertToBackingMap() {
+        backingMap = new TIntIntHashMap(maxIdx * 2, 0.5f, 0, noEntryValue);
+        for (int i = 0; i < maxIdx; ++i) {
+            backingMap.put(table[i << 1], table[(i << 1) + 1]);
+        }
+        maxIdx = 0;
+        isBig = true;
+    }
+
+    private static int findIndex(int[] table, int maxIdx, int key) {
+        for (int i = 0; i < maxIdx; i++) {
+            if (table[i << 1] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,149 @@
+package eu.blacksoft.smallmap;
+
+import java.util.Arrays;
+
+import com.google.common.base.Equivalence;
+
+/**
+ * Shared, immutable layout of keys of {@link ShapedSmallMap}s.
+ *
+ * Maps with the same keys added in the same order share one schema and store
+ * only their values, like hidden classes of JavaScript engines. Schemas form a
+ * tree: root has no keys and every other schema is a transition of its parent
+ * on one new key. Transitions are created on first use and then found by all
+ * maps adding the same key to the same schema.
+ *
+ * Number of keys is limited by threshold of the factory and every schema has
+ * at most {@link #MAX_TRANSITIONS} transitions. Maps whose keys don't fit
+ * switch to a SmallMap created by the factory, so diverging key sets don't make
+ * the tree grow without bound. Keep the root in a static field, maps created
+ * with different roots don't share anything.
+ *
+ * Schemas are thread-safe, maps using them are not.
+ */
+public final class KeySchema {
+    /**
+     * Maximal number of different keys added to single schema.
+     */
+    static final int MAX_TRANSITIONS = 8;
+    private static final KeySchema[] NO_TRANSITIONS = {};
+    private static final Object[] NO_KEYS = {};
+
+    /**
+     * Root of maps comparing keys with equals, up to 5 keys.
+     */
+    public static final KeySchema DEFAULT = root(SmallMapFactory.DEFAULT);
+
+    final SmallMapFactory factory;
+    final KeySchema parent;
+    final Object[] keys;
+    private volatile KeySchema[] transitions = NO_TRANSITIONS;
+
+    private KeySchema(SmallMapFactory factory, KeySchema parent, Object[] keys) {
+        this.factory = factory;
+        this.parent = parent;
+        this.keys = keys;
+    }
+
+    /**
+     * Creates root of new tree of schemas. Keys are compared with equivalence
+     * of the factory, there are at most threshold of them and maps that don't
+     * fit switch to SmallMap created by the factory.
+     */
+    public static KeySchema root(SmallMapFactory factory) {
+        return new KeySchema(factory, null, NO_KEYS);
+    }
+
+    /**
+     * @return number of keys of this schema
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @return index of key in this schema or -1
+     */
+    int indexOf(Object key) {
+        Object[] keys = this.keys;
+        Equivalence<Object> equivalence = factory.equivalence;
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] == key || equivalence.equivalent(keys[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param key
+     *            key that is not in this schema
+     * @return schema with keys of this one followed by key, or null when the
+     *         key does not fit
+     */
+    KeySchema with(Object key) {
+        KeySchema transition = transition(transitions, key);
+        if (transition != null) {
+            return transition;
+        }
+        if (keys.length >= factory.threshold()) {
+            return null;
+        }
+        synchronized (this) {
+            KeySchema[] current = transitions;
+            transition = transition(current, key);
+            if (transition != null) {
+                return transition;
+            }
+            if (current.length >= MAX_TRANSITIONS) {
+                return null;
+            }
+            Object[] childKeys = Arrays.copyOf(keys, keys.length + 1);
+            childKeys[keys.length] = key;
+            transition = new KeySchema(factory, this, childKeys);
+            KeySchema[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = transition;
+            transitions = updated;
+            return transition;
+        }
+    }
+
+    /**
+     * @return schema with keys of this one except the one at index, in the
+     *         same order, or null when they don't fit
+     */
+    KeySchema without(int index) {
+        KeySchema schema = this;
+        for (int i = keys.length; i > index; --i) {
+            schema = schema.parent;
+        }
+        for (int i = index + 1; i < keys.length && schema != null; ++i) {
+            schema = schema.with(keys[i]);
+        }
+        return schema;
+    }
+
+    KeySchema root() {
+        KeySchema schema = this;
+        while (schema.parent != null) {
+            schema = schema.parent;
+        }
+        return schema;
+    }
+
+    private KeySchema transition(KeySchema[] transitions, Object key) {
+        Equivalence<Object> equivalence = factory.equivalence;
+        for (KeySchema transition : transitions) {
+            Object last = transition.keys[keys.length];
+            if (last == key || equivalence.equivalent(last, key)) {
+                return transition;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "KeySchema" + Arrays.toString(keys);
+    }
+}
@@ -0,0 +1,251 @@
+package eu.blacksoft.smallmap;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TLongObjectProcedure;
+
+import java.util.Arrays;
+
+/**
+ * Variant of {@link SmallMap} with primitive long keys.
+ *
+ * Keys are kept in long[] so lookups don't box and compare with ==. When number
+ * of elements exceeds threshold it switches to Trove's TLongObjectHashMap.
+ *
+ * Main don'ts: - Does not accept null values. - Is not thread-safe.
+ */
+public class LongObjectSmallMap<V> {
+    private static final int DEFAULT_SIZE = 5;
+
+    private boolean isBig = false;
+
+    private int maxIdx = 0;
+    private final long[] keys;
+    private final V[] values;
+
+    private TLongObjectMap<V> backingMap = null;
+
+    /**
+     * Create new map with default threshold of 5.
+     */
+    public LongObjectSmallMap() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * @param size
+     *            maximal size of elements stored in internal arrays. When this
+     *            is exceeded it will switch to backing map.
+     */
+    @SuppressWarnings("unchecked")
+    public LongObjectSmallMap(int size) {
+        this.keys = new long[size];
+        this.values = (V[]) new Object[size];
+    }
+
+    public int size() {
+        if (isBig) {
+            return backingMap.size();
+        }
+        return maxIdx;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(long key) {
+        if (isBig) {
+            return backingMap.containsKey(key);
+        }
+        return findIndex(keys, maxIdx, key) != -1;
+    }
+
+    public boolean containsValue(Object value) {
+        checkNullArgument(value);
+        if (isBig) {
+            return backingMap.containsValue(value);
+        }
+        for (int i = 0; i < maxIdx; ++i) {
+            if (values[i].equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return value for given key or null if there is no such key
+     */
+    public V get(long key) {
+        if (isBig) {
+            return backingMap.get(key);
+        }
+        int idx = findIndex(keys, maxIdx, key);
+        if (idx != -1) {
+            return values[idx];
+        }
+        return null;
+    }
+
+    /**
+     * @return previous value or null if there was no such key
+     */
+    public V put(long key, V value) {
+        checkNullArgument(value);
+        if (isBig) {
+            return backingMap.put(key, value);
+        }
+        int idx = findIndex(keys, maxIdx, key);
+        if (idx == -1) {
+            if (maxIdx == keys.length) {
+                convertToBackingMap();
+                return backingMap.put(key, value);
+            }
+            idx = maxIdx++;
+            keys[idx] = key;
+        }
+        V previous = values[idx];
+        values[idx] = value;
+        return previous;
+    }
+
+    /**
+     * Remove element from map. Like in {@link SmallMap#remove(Object)} backing
+     * map is not destroyed, use {@link #clear()} to switch back to arrays.
+     *
+     * @return value of removed key or null if nothing was removed
+     */
+    public V remove(long key) {
+        if (isBig) {
+            return backingMap.remove(key);
+        }
+        int idx = findIndex(keys, maxIdx, key);
+        if (idx == -1) {
+            return null;
+        }
+        V value = values[idx];
+        int last = --maxIdx;
+        keys[idx] = keys[last];
+        values[idx] = values[last];
+        values[last] = null;
+        return value;
+    }
+
+    /**
+     * Remove all elements from map, destroy backing map if it was created and
+     * switch to arrays.
+     */
+    public void clear() {
+        if (isBig) {
+            backingMap = null;
+            isBig = false;
+        }
+        Arrays.fill(values, 0, maxIdx, null);
+        maxIdx = 0;
+    }
+
+    /**
+     * @return copy of keys in this map
+     */
+    public long[] keys() {
+        if (isBig) {
+            return backingMap.keys();
+        }
+        return Arrays.copyOf(keys, maxIdx);
+    }
+
+    /**
+     * Executes procedure for every entry without boxing the keys.
+     *
+     * @return false if procedure returned false for some entry
+     */
+    public boolean forEachEntry(TLongObjectProcedure<? super V> procedure) {
+        if (isBig) {
+            return backingMap.forEachEntry(procedure);
+        }
+        for (int i = 0; i < maxIdx; ++i) {
+            if (!procedure.execute(keys[i], values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LongObjectSmallMap)) {
+            return false;
+        }
+        final LongObjectSmallMap<?> other = (LongObjectSmallMap<?>) obj;
+        if (other.size() != size()) {
+            return false;
+        }
+        return forEachEntry(new TLongObjectProcedure<V>() {
+            @Override
+            public boolean execute(long key, V value) {
+                return value.equals(other.get(key));
+            }
+        });
+    }
+
+    @Override
+    public int hashCode() {
+        final int[] hashCode = new int[1];
+        forEachEntry(new TLongObjectProcedure<V>() {
+            @Override
+            public boolean execute(long key, V value) {
+                hashCode[0] += (int) (key ^ (key >>> 32)) ^ value.hashCode();
+                return true;
+            }
+        });
+        return hashCode[0];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(isBig ? "[Big]{" : "[Small]{");
+        final int start = sb.length();
+        forEachEntry(new TLongObjectProcedure<V>() {
+            @Override
+            public boolean execute(long key, V value) {
+                if (sb.length() > start) {
+                    sb.append(", ");
+                }
+                sb.append(key).append('=').append(value);
+                return true;
+            }
+        });
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private void convertToBackingMap() {
+        backingMap = new TLongObjectHashMap<V>(maxIdx * 2);
+        for (int i = 0; i < maxIdx; ++i) {
+            backingMap.put(keys[i], values[i]);
+        }
+        Arrays.fill(values, 0, maxIdx, null);
+        maxIdx = 0;
+        isBig = true;
+    }
+
+    private static void checkNullArgument(Object value) {
+        if (value == null) {
+            throw new NullPointerException("This map does not accept null values.");
+        }
+    }
+
+    private static int findIndex(long[] array, int maxIdx, long key) {
+        for (int i = 0; i < maxIdx; i++) {
+            if (array[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
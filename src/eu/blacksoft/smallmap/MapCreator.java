@@ -3,5 +3,11 @@ package eu.blacksoft.smallmap;
 import java.util.Map;
 
 public interface MapCreator {
+	/**
+	 * @param initialSize
+	 *            expected number of entries, map should hold them without
+	 *            resizing (like expected maximum size of IdentityHashMap, not
+	 *            capacity of HashMap)
+	 */
 	<K, V> Map<K, V> create(int initialSize);
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package eu.blacksoft.smallmap;
+
+/**
+ * Iterates over entries of a map without creating entry objects.
+ *
+ * Cursor starts before the first entry, {@link #advance()} moves it to the next
+ * one. Usage:
+ *
+ * <pre>
+ * MapCursor&lt;K, V&gt; cursor = map.cursor();
+ * while (cursor.advance()) {
+ *     cursor.setValue(merge(cursor.key(), cursor.value()));
+ * }
+ * </pre>
+ *
+ * Map must not be modified other than through the cursor while iterating.
+ */
+public interface MapCursor<K, V> {
+    /**
+     * Moves cursor to the next entry.
+     *
+     * @return false when there are no more entries
+     */
+    boolean advance();
+
+    /**
+     * @return key of current entry
+     * @throws IllegalStateException
+     *             when cursor is not at an entry
+     */
+    K key();
+
+    /**
+     * @return value of current entry
+     * @throws IllegalStateException
+     *             when cursor is not at an entry
+     */
+    V value();
+
+    /**
+     * Replaces value of current entry.
+     *
+     * @return previous value
+     * @throws IllegalStateException
+     *             when cursor is not at an entry
+     */
+    V setValue(V value);
+
+    /**
+     * Removes current entry, cursor stays before the next one.
+     *
+     * @throws IllegalStateException
+     *             when cursor is not at an entry
+     */
+    void remove();
+}
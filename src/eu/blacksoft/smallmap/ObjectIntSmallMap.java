@@ -0,0 +1,276 @@
+package eu.blacksoft.smallmap;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.procedure.TObjectIntProcedure;
+
+import java.util.Arrays;
+
+/**
+ * Variant of {@link SmallMap} with primitive int values.
+ *
+ * Values are kept in int[] so they are never boxed. Missing keys are reported
+ * with "no entry value" (0 by default). When number of elements exceeds
+ * threshold it switches to Trove's TObjectIntHashMap.
+ *
+ * Main don'ts: - Does not accept null keys. - Is not thread-safe.
+ */
+public class ObjectIntSmallMap<K> {
+    private static final int DEFAULT_SIZE = 5;
+
+    private boolean isBig = false;
+
+    private int maxIdx = 0;
+    private final K[] keys;
+    private final int[] values;
+    private final int noEntryValue;
+
+    private TObjectIntMap<K> backingMap = null;
+
+    /**
+     * Create new map with default threshold of 5 and 0 as no entry value.
+     */
+    public ObjectIntSmallMap() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Create new map with 0 as no entry value.
+     * 
+     * @param size
+     *            maximal size of elements stored in internal arrays. When this
+     *            is exceeded it will switch to backing map.
+     */
+    public ObjectIntSmallMap(int size) {
+        this(size, 0);
+    }
+
+    /**
+     * @param size
+     *            maximal size of elements stored in internal arrays. When this
+     *            is exceeded it will switch to backing map.
+     * @param noEntryValue
+     *            value returned by get, put and remove when there is no such
+     *            key
+     */
+    @SuppressWarnings("unchecked")
+    public ObjectIntSmallMap(int size, int noEntryValue) {
+        this.keys = (K[]) new Object[size];
+        this.values = new int[size];
+        this.noEntryValue = noEntryValue;
+    }
+
+    public int getNoEntryValue() {
+        return noEntryValue;
+    }
+
+    public int size() {
+        if (isBig) {
+            return backingMap.size();
+        }
+        return maxIdx;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(Object key) {
+        checkNullArgument(key);
+        if (isBig) {
+            return backingMap.containsKey(key);
+        }
+        return findIndex(keys, maxIdx, key) != -1;
+    }
+
+    public boolean containsValue(int value) {
+        if (isBig) {
+            return backingMap.containsValue(value);
+        }
+        for (int i = 0; i < maxIdx; ++i) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return value for given key or no entry value if there is no such key
+     */
+    public int get(Object key) {
+        checkNullArgument(key);
+        if (isBig) {
+            return backingMap.get(key);
+        }
+        int idx = findIndex(keys, maxIdx, key);
+        if (idx != -1) {
+            return values[idx];
+        }
+        return noEntryValue;
+    }
+
+    /**
+     * @return previous value or no entry value if there was no such key
+     */
+    public int put(K key, int value) {
+        checkNullArgument(key);
+        if (isBig) {
+            return backingMap.put(key, value);
+        }
+        int idx = findIndex(keys, maxIdx, key);
+        if (idx == -1) {
+            if (maxIdx == keys.length) {
+                convertToBackingMap();
+                return backingMap.put(key, value);
+            }
+            idx = maxIdx++;
+            keys[idx] = key;
+            values[idx] = value;
+            return noEntryValue;
+        }
+        int previous = values[idx];
+        values[idx] = value;
+        return previous;
+    }
+
+    /**
+     * Remove element from map. Like in {@link SmallMap#remove(Object)} backing
+     * map is not destroyed, use {@link #clear()} to switch back to arrays.
+     *
+     * @return value of removed key or no entry value if nothing was removed
+     */
+    public int remove(Object key) {
+        checkNullArgument(key);
+        if (isBig) {
+            return backingMap.remove(key);
+        }
+        int idx = findIndex(keys, maxIdx, key);
+        if (idx == -1) {
+            return noEntryValue;
+        }
+        int value = values[idx];
+        int last = --maxIdx;
+        keys[idx] = keys[last];
+        values[idx] = values[last];
+        keys[last] = null;
+        return value;
+    }
+
+    /**
+     * Remove all elements from map, destroy backing map if it was created and
+     * switch to arrays.
+     */
+    public void clear() {
+        if (isBig) {
+            backingMap = null;
+            isBig = false;
+        }
+        Arrays.fill(keys, 0, maxIdx, null);
+        maxIdx = 0;
+    }
+
+    /**
+     * @return copy of keys in this map
+     */
+    public Object[] keys() {
+        if (isBig) {
+            return backingMap.keys();
+        }
+        return Arrays.copyOf(keys, maxIdx, Object[].class);
+    }
+
+    /**
+     * Executes procedure for every entry without boxing the values.
+     *
+     * @return false if procedure returned false for some entry
+     */
+    public boolean forEachEntry(TObjectIntProcedure<? super K> procedure) {
+        if (isBig) {
+            return backingMap.forEachEntry(procedure);
+        }
+        for (int i = 0; i < maxIdx; ++i) {
+            if (!procedure.execute(keys[i], values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ObjectIntSmallMap)) {
+            return false;
+        }
+        final ObjectIntSmallMap<?> other = (ObjectIntSmallMap<?>) obj;
+        if (other.size() != size()) {
+            return false;
+        }
+        return forEachEntry(new TObjectIntProcedure<K>() {
+            @Override
+            public boolean execute(K key, int value) {
+                return other.containsKey(key) && other.get(key) == value;
+            }
+        });
+    }
+
+    @Override
+    public int hashCode() {
+        final int[] hashCode = new int[1];
+        forEachEntry(new TObjectIntProcedure<K>() {
+            @Override
+            public boolean execute(K key, int value) {
+                hashCode[0] += key.hashCode() ^ value;
+                return true;
+            }
+        });
+        return hashCode[0];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(isBig ? "[Big]{" : "[Small]{");
+        final int start = sb.length();
+        forEachEntry(new TObjectIntProcedure<K>() {
+            @Override
+            public boolean execute(K key, int value) {
+                if (sb.length() > start) {
+                    sb.append(", ");
+                }
+                sb.append(key).append('=').append(value);
+                return true;
+            }
+        });
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private void convertToBackingMap() {
+        backingMap = new TObjectIntHashMap<K>(maxIdx * 2, 0.5f, noEntryValue);
+        for (int i = 0; i < maxIdx; ++i) {
+            backingMap.put(keys[i], values[i]);
+        }
+        Arrays.fill(keys, 0, maxIdx, null);
+        maxIdx = 0;
+        isBig = true;
+    }
+
+    private static void checkNullArgument(Object key) {
+        if (key == null) {
+            throw new NullPointerException("This map does not accept null keys.");
+        }
+    }
+
+    private static int findIndex(Object[] array, int maxIdx, Object key) {
+        for (int i = 0; i < maxIdx; i++) {
+            if (array[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,450 @@
+package eu.blacksoft.smallmap;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map for many record-like maps with the same keys, which are stored once in
+ * a shared {@link KeySchema}. Each map holds only its schema and an array of
+ * values sized exactly to the number of entries.
+ *
+ * Putting new key moves the map to transition of its schema, removing a key
+ * moves it to schema with the remaining keys in the same order. When keys
+ * don't fit into schemas (too many of them or too many different keys added to
+ * the same schema) the map copies its entries to SmallMap created by factory
+ * of the schema and forwards all invocations to it. It returns to schemas
+ * only after {@link #clear()}.
+ *
+ * Like SmallMap it does not accept null keys or values and is not thread-safe.
+ * Views are live, iterators walk keys of the schema the map had when they were
+ * created.
+ */
+public class ShapedSmallMap<K, V> implements Map<K, V> {
+    private static final Object[] NO_VALUES = {};
+
+    /**
+     * Schema of keys, root of schemas after switch to SmallMap.
+     */
+    private KeySchema schema;
+    /**
+     * Value of i-th key of schema at i.
+     */
+    private Object[] values = NO_VALUES;
+    /**
+     * Entries of map whose keys don't fit into schemas, null otherwise.
+     */
+    private SmallMap<K, V> map;
+
+    /**
+     * Create new map using {@link KeySchema#DEFAULT} schemas.
+     */
+    public ShapedSmallMap() {
+        this(KeySchema.DEFAULT);
+    }
+
+    /**
+     * Create new map using schemas of given root, see
+     * {@link KeySchema#root(SmallMapFactory)}.
+     */
+    public ShapedSmallMap(KeySchema root) {
+        if (root.parent != null) {
+            throw new IllegalArgumentException("Schema is not a root: " + root);
+        }
+        this.schema = root;
+    }
+
+    @Override
+    public int size() {
+        if (map != null) {
+            return map.size();
+        }
+        return values.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (map != null) {
+            return map.containsValue(value);
+        }
+        for (Object v : values) {
+            if (v.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            throw new NullPointerException("This map does not accept null keys or values.");
+        }
+        if (map != null) {
+            return map.get(key);
+        }
+        int idx = schema.indexOf(key);
+        return idx == -1 ? null : (V) values[idx];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("This map does not accept null keys or values.");
+        }
+        if (map != null) {
+            return map.put(key, value);
+        }
+        int idx = schema.indexOf(key);
+        if (idx != -1) {
+            V old = (V) values[idx];
+            values[idx] = value;
+            return old;
+        }
+        KeySchema next = schema.with(key);
+        if (next == null) {
+            switchToSmallMap();
+            return map.put(key, value);
+        }
+        values = Arrays.copyOf(values, values.length + 1);
+        values[values.length - 1] = value;
+        schema = next;
+        return null;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(Object key) {
+        if (key == null) {
+            throw new NullPointerException("This map does not accept null keys or values.");
+        }
+        if (map != null) {
+            return map.remove(key);
+        }
+        int idx = schema.indexOf(key);
+        if (idx == -1) {
+            return null;
+        }
+        V old = (V) values[idx];
+        KeySchema next = schema.without(idx);
+        if (next == null) {
+            switchToSmallMap();
+            return map.remove(key);
+        }
+        Object[] remaining = values.length == 1 ? NO_VALUES : new Object[values.length - 1];
+        System.arraycopy(values, 0, remaining, 0, idx);
+        System.arraycopy(values, idx + 1, remaining, idx, remaining.length - idx);
+        values = remaining;
+        schema = next;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        schema = schema.root();
+        values = NO_VALUES;
+        map = null;
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new KeySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new Values();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (map != null) {
+            return map.equals(obj);
+        }
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof Map)) {
+            return false;
+        }
+        Map<?, ?> m = (Map<?, ?>) obj;
+        if (m.size() != values.length) {
+            return false;
+        }
+        Object[] keys = schema.keys;
+        for (int i = 0; i < keys.length; ++i) {
+            // null values not allowed
+            if (!values[i].equals(m.get(keys[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        if (map != null) {
+            return map.hashCode();
+        }
+        Object[] keys = schema.keys;
+        int hashCode = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            hashCode += schema.factory.equivalence.hash(keys[i]) ^ values[i].hashCode();
+        }
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        if (map != null) {
+            return map.toString();
+        }
+        StringBuilder sb = new StringBuilder("[Shaped]{");
+        Object[] keys = schema.keys;
+        for (int i = 0; i < keys.length; ++i) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(keys[i]).append('=').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * @return schema of keys, root of schemas after switch to SmallMap
+     */
+    KeySchema schema() {
+        return schema;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void switchToSmallMap() {
+        SmallMap<K, V> smallMap = schema.factory.create();
+        Object[] keys = schema.keys;
+        for (int i = 0; i < keys.length; ++i) {
+            smallMap.put((K) keys[i], (V) values[i]);
+        }
+        map = smallMap;
+        schema = schema.root();
+        values = NO_VALUES;
+    }
+
+    /**
+     * Walks keys of schema the map had when the iterator was created and reads
+     * their current values. Removal of returned entry may switch the map to
+     * SmallMap, iteration continues over the keys.
+     */
+    private abstract class SchemaIterator<T> implements Iterator<T> {
+        private final KeySchema iterated = schema;
+        private int idx = 0;
+        private boolean canRemove = false;
+
+        @Override
+        public boolean hasNext() {
+            return idx < iterated.keys.length;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            canRemove = true;
+            return next(iterated.keys[idx++]);
+        }
+
+        abstract T next(Object key);
+
+        @Override
+        public void remove() {
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            canRemove = false;
+            ShapedSmallMap.this.remove(iterated.keys[idx - 1]);
+        }
+    }
+
+    private final class Entry implements Map.Entry<K, V> {
+        private final K key;
+
+        Entry(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return get(key);
+        }
+
+        @Override
+        public V setValue(V value) {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            return schema.factory.equivalence.equivalent(key, other.getKey())
+                    && getValue().equals(other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return schema.factory.equivalence.hash(key) ^ getValue().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
+    private final class KeySet extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            if (map != null) {
+                return map.keySet().iterator();
+            }
+            return new SchemaIterator<K>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                K next(Object key) {
+                    return (K) key;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ShapedSmallMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return ShapedSmallMap.this.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            ShapedSmallMap.this.clear();
+        }
+    }
+
+    private final class Values extends AbstractCollection<V> {
+        @Override
+        public Iterator<V> iterator() {
+            if (map != null) {
+                return map.values().iterator();
+            }
+            return new SchemaIterator<V>() {
+                @Override
+                V next(Object key) {
+                    return get(key);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ShapedSmallMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            ShapedSmallMap.this.clear();
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            if (map != null) {
+                return map.entrySet().iterator();
+            }
+            return new SchemaIterator<Map.Entry<K, V>>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                Map.Entry<K, V> next(Object key) {
+                    return new Entry((K) key);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ShapedSmallMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            Object value = entry.getKey() == null ? null : get(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            ShapedSmallMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            ShapedSmallMap.this.clear();
+        }
+    }
+}
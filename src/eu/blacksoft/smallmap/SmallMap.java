@@ -1,53 +1,97 @@
 package eu.blacksoft.smallmap;
 
-import java.util.ArrayList;
+import static eu.blacksoft.smallmap.SmallMapFactory.EQUALS;
+import static eu.blacksoft.smallmap.SmallMapFactory.IDENTITY;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
-import java.util.List;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.google.common.base.Equivalence;
 
 /**
  * Map implementation that is optimized for storing small number of elements
  * with low memory usage.
  * 
- * It uses arrays internally to store keys and values and performs linear search
- * over them (with few elements it is no more than 2 times worse than HashMap,
- * equally performant for less than 3 elements).
+ * It uses single array internally to store interleaved keys and values and
+ * performs linear search over keys (with few elements it is no more than 2
+ * times worse than HashMap, equally performant for less than 3 elements).
+ * Array is allocated on first put and for up to 4 elements it has exactly the
+ * size needed, so the tiniest maps are also the smallest.
  * 
  * When number of elements exceeds specified amount it uses MapCreator to create
  * "real" Map and forwards all invocations to it.
  * 
- * Main don'ts: - Does not accept null keys or values. - Returned Entries are
- * immutable. - Is not thread-safe. - Behavior may change when switching from
- * internal arrays to backing map.
+ * Optionally hash codes of keys can be cached, so lookups call equals only for
+ * keys with matching hash.
+ * 
+ * Keys are compared with equals by default, but any Equivalence can be used
+ * instead (e.g. identity for interned or enum-like keys).
+ * 
+ * Views returned by {@link #keySet()}, {@link #values()} and
+ * {@link #entrySet()} are live in both modes and support removal.
+ * 
+ * Maps with more entries (up to a few dozens) can keep keys sorted and find
+ * them with binary search, see {@link SmallMapFactory#withSortedKeys()}.
+ * 
+ * Main don'ts: - Does not accept null keys or values. - Is not thread-safe. -
+ * Behavior may change when switching from internal arrays to backing map. -
+ * Iterators are not fail-fast, adding entries while iterating is not
+ * supported. - Functions of compute and merge must not modify the map.
  */
 public class SmallMap<K, V> implements Map<K, V> {
-    private static final int DEFAULT_SIZE = 5;
-    private static final MapCreator DEFAULT_CREATOR = new MapCreator() {
-        @Override
-        public <K, V> Map<K, V> create(int initialSize) {
-            return new HashMap<K, V>(initialSize);
-        }
-    };
+    /**
+     * Shared by all maps that have no entries in arrays, so empty maps don't
+     * allocate anything.
+     */
+    private static final Object[] EMPTY_TABLE = {};
+    /**
+     * Up to this number of entries table is sized exactly to the number of
+     * entries, bigger tables are allocated with threshold size at once.
+     */
+    private static final int MAX_EXACT_SIZE = 4;
+    private static final int[] EMPTY_HASHES = {};
+    private static final SmallMapFactory IDENTITY_FACTORY = SmallMapFactory.DEFAULT
+            .withEquivalence(IDENTITY);
+    /**
+     * Returned by {@link #racyGet(Object)} when entries are in backing map.
+     */
+    static final Object NOT_IN_ARRAYS = new Object();
 
     private boolean isBig = false;
 
     private int maxIdx = 0;
-    private final K[] keys;
-    private final V[] values;
+    /**
+     * Keys and values interleaved: key of entry i is at 2 * i and its value at
+     * 2 * i + 1, so one array (and one array header) holds both. Allocated on
+     * first put, {@link #EMPTY_TABLE} while there are no entries.
+     */
+    private Object[] table = EMPTY_TABLE;
+    /**
+     * Hash codes of keys, compared before calling equals. Null when hashes are
+     * not cached, allocated together with table.
+     */
+    private int[] hashes;
 
     private Map<K, V> backingMap = null;
-    private final MapCreator mapCreator;
+    private final SmallMapFactory factory;
 
     /**
      * Create new SmallMap with default threshold of 5 and HashMap creator for
      * backing map.
      */
     public SmallMap() {
-        this(DEFAULT_SIZE, DEFAULT_CREATOR);
+        this(SmallMapFactory.DEFAULT);
     }
 
     /**
@@ -58,7 +102,7 @@ public class SmallMap<K, V> implements Map<K, V> {
      *            is exceeded it will switch to backing map.
      */
     public SmallMap(int size) {
-        this(size, DEFAULT_CREATOR);
+        this(SmallMapFactory.DEFAULT.withThreshold(size));
     }
 
     /**
@@ -69,14 +113,61 @@ public class SmallMap<K, V> implements Map<K, V> {
      *            return empty map.
      */
     public SmallMap(MapCreator creator) {
-        this(DEFAULT_SIZE, creator);
+        this(SmallMapFactory.DEFAULT.withMapCreator(creator));
     }
 
-    @SuppressWarnings("unchecked")
     public SmallMap(int size, MapCreator mapCreator) {
-        this.mapCreator = mapCreator;
-        this.keys = (K[]) new Object[size];
-        this.values = (V[]) new Object[size];
+        this(SmallMapFactory.DEFAULT.withThreshold(size).withMapCreator(mapCreator));
+    }
+
+    /**
+     * Create new SmallMap comparing keys with given equivalence. Backing map
+     * matches the equivalence, see
+     * {@link SmallMapFactory#withEquivalence(Equivalence)}.
+     * 
+     * @param size
+     *            maximal size of elements stored in internal arrays. When this
+     *            is exceeded it will switch to backing map.
+     * @param equivalence
+     *            equivalence of keys, e.g. {@link Equivalence#identity()}
+     */
+    public SmallMap(int size, Equivalence<? super K> equivalence) {
+        this(SmallMapFactory.DEFAULT.withThreshold(size).withEquivalence(equivalence));
+    }
+
+    /**
+     * Create new SmallMap that optionally caches hash codes of its keys, see
+     * {@link SmallMapFactory#withCachedHashes(boolean)}.
+     * 
+     * @param size
+     *            maximal size of elements stored in internal arrays. When this
+     *            is exceeded it will switch to backing map.
+     * @param mapCreator
+     *            Provider of backing map instances.
+     * @param cacheHashes
+     *            whether hash codes of keys should be stored
+     */
+    public SmallMap(int size, MapCreator mapCreator, boolean cacheHashes) {
+        this(SmallMapFactory.DEFAULT.withThreshold(size).withMapCreator(mapCreator)
+                .withCachedHashes(cacheHashes));
+    }
+
+    /**
+     * Create new SmallMap with settings of given factory. Maps sharing one
+     * factory don't pay for the settings individually.
+     */
+    public SmallMap(SmallMapFactory factory) {
+        this.factory = factory;
+        this.hashes = factory.cacheHashes ? EMPTY_HASHES : null;
+    }
+
+    /**
+     * Create copy of given map with the same settings. Arrays are copied at
+     * once, backing map is created with room for all entries.
+     */
+    public SmallMap(SmallMap<? extends K, ? extends V> other) {
+        this(other.factory);
+        putAll(other);
     }
 
     @Override
@@ -102,7 +193,10 @@ public class SmallMap<K, V> implements Map<K, V> {
         if (isBig) {
             return backingMap.containsKey(key);
         }
-        return findIndex(keys, maxIdx, key) != -1;
+        if (factory.adaptive != null) {
+            return findKeySampled(key) != -1;
+        }
+        return findKey(key) != -1;
     }
 
     @Override
@@ -111,7 +205,12 @@ public class SmallMap<K, V> implements Map<K, V> {
         if (isBig) {
             return backingMap.containsValue(value);
         }
-        return findIndex(values, maxIdx, value) != -1;
+        for (int i = 0; i < maxIdx; i++) {
+            if (table[(i << 1) + 1].equals(value)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -120,9 +219,9 @@ public class SmallMap<K, V> implements Map<K, V> {
         if (isBig) {
             return backingMap.get(key);
         }
-        int idx = findIndex(keys, maxIdx, key);
+        int idx = factory.adaptive != null ? findKeySampled(key) : findKey(key);
         if (idx != -1) {
-            return values[idx];
+            return valueAt(idx);
         }
         return null;
     }
@@ -134,42 +233,94 @@ public class SmallMap<K, V> implements Map<K, V> {
         if (isBig) {
             return backingMap.put(key, value);
         }
-        int idx = findIndex(keys, maxIdx, key);
-        if (idx == -1) {
-            // check if we don't need to convert
-            if (maxIdx == keys.length) {
-                convertToBackingMap();
-                return backingMap.put(key, value);
-            }
-            // get new index
-            idx = maxIdx++;
-            keys[idx] = key;
+        // hash is computed once and stored if a new slot is taken
+        int hash = hashOf(key);
+        int idx = findSlot(key, hash);
+        if (idx < 0) {
+            insert(key, value, hash, idx);
+            return null;
         }
-        V previous = values[idx];
-        values[idx] = value;
-
-        return previous;
+        return setValueAt(idx, value);
     }
 
+    /**
+     * Put all entries of given map. Entries of SmallMap in array mode are read
+     * from its arrays, into empty map with the same equivalence (and order of
+     * keys) the arrays are copied at once.
+     */
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
-        if (m.size() > keys.length - maxIdx) {
-            convertToBackingMap();
+        if (m == this) {
+            // converting arrays would lose entries being read
+            return;
+        }
+        if (isBig) {
+            backingMap.putAll(m);
+            return;
+        }
+        if (m instanceof SmallMap && !((SmallMap<?, ?>) m).isBig) {
+            putAllArrays((SmallMap<? extends K, ? extends V>) m);
+            return;
+        }
+        if (m.size() > factory.threshold() - maxIdx) {
+            if (maxIdx == 0) {
+                presize(m.size());
+            } else {
+                convertToBackingMap();
+            }
             backingMap.putAll(m);
             return;
         }
         // just put elements because they will fit in arrays
+        ensureCapacity(maxIdx + m.size());
         for (java.util.Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
             put(entry.getKey(), entry.getValue());
         }
     }
 
+    private void putAllArrays(SmallMap<? extends K, ? extends V> other) {
+        int size = other.maxIdx;
+        if (size == 0) {
+            return;
+        }
+        if (maxIdx == 0 && size <= factory.threshold() && hasSameKeysAs(other)) {
+            // keys of other map are distinct for this one as well
+            table = Arrays.copyOf(other.table, size << 1);
+            if (hashes != null) {
+                hashes = other.hashes != null ? Arrays.copyOf(other.hashes, size) : new int[size];
+                for (int i = 0; other.hashes == null && i < size; ++i) {
+                    hashes[i] = factory.equivalence.hash(table[i << 1]);
+                }
+            }
+            maxIdx = size;
+            return;
+        }
+        if (size > factory.threshold() - maxIdx) {
+            convertToBackingMap();
+        } else {
+            ensureCapacity(maxIdx + size);
+        }
+        for (int i = 0; i < size; ++i) {
+            put(other.keyAt(i), other.valueAt(i));
+        }
+    }
+
+    /**
+     * @return whether keys of other map are compared and ordered like keys of
+     *         this one
+     */
+    private boolean hasSameKeysAs(SmallMap<?, ?> other) {
+        return other.factory.equivalence == factory.equivalence
+                && other.factory.comparator == factory.comparator;
+    }
+
     /**
      * Remove element from map.
      * 
-     * NOTE: this method will not destroy backing map once it was created. To
-     * remove backing map and switch to internal arrays of SmallMap use
-     * {@link #clear()} method.
+     * NOTE: this method will not destroy backing map once it was created,
+     * unless factory of this map has low watermark set (see
+     * {@link SmallMapFactory#withLowWatermark(int)}). To remove backing map and
+     * switch to internal arrays of SmallMap use {@link #clear()} method.
      * 
      * @throws NullPointerException
      *             when key is null
@@ -179,29 +330,220 @@ public class SmallMap<K, V> implements Map<K, V> {
     public V remove(Object key) {
         checkNullArgument(key);
         if (isBig) {
-            return backingMap.remove(key);
+            V removed = backingMap.remove(key);
+            if (removed != null) {
+                checkLowWatermark();
+            }
+            return removed;
         }
-        int idx = findIndex(keys, maxIdx, key);
+        int idx = findKey(key);
         if (idx == -1) {
             return null;
         }
-    
-        V value = values[idx];
-        // move last element in place of removed one
-        int last = --maxIdx;
-    
-        keys[idx] = keys[last];
-        values[idx] = values[last];
-        // clear last elements
-        keys[last] = null;
-        values[last] = null;
-    
+        return removeAt(idx);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        checkNullArgument(key);
+        if (isBig) {
+            return backingMap.getOrDefault(key, defaultValue);
+        }
+        int idx = factory.adaptive != null ? findKeySampled(key) : findKey(key);
+        return idx == -1 ? defaultValue : valueAt(idx);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        checkNullArgument(key);
+        checkNullArgument(value);
+        if (isBig) {
+            return backingMap.putIfAbsent(key, value);
+        }
+        int hash = hashOf(key);
+        int idx = findSlot(key, hash);
+        if (idx < 0) {
+            insert(key, value, hash, idx);
+            return null;
+        }
+        return valueAt(idx);
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        checkNullArgument(key);
+        if (isBig) {
+            return backingMap.computeIfAbsent(key, mappingFunction);
+        }
+        int hash = hashOf(key);
+        int idx = findSlot(key, hash);
+        if (idx >= 0) {
+            return valueAt(idx);
+        }
+        int size = maxIdx;
+        V value = mappingFunction.apply(key);
+        checkUnmodified(size, idx, null);
+        if (value != null) {
+            insert(key, value, hash, idx);
+        }
+        return value;
+    }
+
+    @Override
+    public V computeIfPresent(K key,
+            BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        checkNullArgument(key);
+        if (isBig) {
+            V value = backingMap.computeIfPresent(key, remappingFunction);
+            checkLowWatermark();
+            return value;
+        }
+        int idx = findKey(key);
+        if (idx == -1) {
+            return null;
+        }
+        int size = maxIdx;
+        Object found = table[idx << 1];
+        V value = remappingFunction.apply(key, valueAt(idx));
+        checkUnmodified(size, idx, found);
+        if (value == null) {
+            removeAt(idx);
+        } else {
+            table[(idx << 1) + 1] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        checkNullArgument(key);
+        if (isBig) {
+            V value = backingMap.compute(key, remappingFunction);
+            checkLowWatermark();
+            return value;
+        }
+        int hash = hashOf(key);
+        int idx = findSlot(key, hash);
+        int size = maxIdx;
+        Object found = idx < 0 ? null : table[idx << 1];
+        V value = remappingFunction.apply(key, idx < 0 ? null : valueAt(idx));
+        checkUnmodified(size, idx, found);
+        if (value == null) {
+            if (idx >= 0) {
+                removeAt(idx);
+            }
+        } else if (idx < 0) {
+            insert(key, value, hash, idx);
+        } else {
+            table[(idx << 1) + 1] = value;
+        }
         return value;
     }
 
+    @Override
+    public V merge(K key, V value,
+            BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        checkNullArgument(key);
+        checkNullArgument(value);
+        if (isBig) {
+            V merged = backingMap.merge(key, value, remappingFunction);
+            checkLowWatermark();
+            return merged;
+        }
+        int hash = hashOf(key);
+        int idx = findSlot(key, hash);
+        if (idx < 0) {
+            insert(key, value, hash, idx);
+            return value;
+        }
+        int size = maxIdx;
+        Object found = table[idx << 1];
+        V merged = remappingFunction.apply(valueAt(idx), value);
+        checkUnmodified(size, idx, found);
+        if (merged == null) {
+            removeAt(idx);
+        } else {
+            table[(idx << 1) + 1] = merged;
+        }
+        return merged;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        checkNullArgument(key);
+        checkNullArgument(value);
+        if (isBig) {
+            return backingMap.replace(key, value);
+        }
+        int idx = findKey(key);
+        return idx == -1 ? null : setValueAt(idx, value);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        checkNullArgument(key);
+        checkNullArgument(newValue);
+        if (isBig) {
+            return backingMap.replace(key, oldValue, newValue);
+        }
+        int idx = findKey(key);
+        if (idx == -1 || !valueAt(idx).equals(oldValue)) {
+            return false;
+        }
+        table[(idx << 1) + 1] = newValue;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        checkNullArgument(key);
+        if (isBig) {
+            if (backingMap.remove(key, value)) {
+                checkLowWatermark();
+                return true;
+            }
+            return false;
+        }
+        int idx = findKey(key);
+        if (idx == -1 || !valueAt(idx).equals(value)) {
+            return false;
+        }
+        removeAt(idx);
+        return true;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (isBig) {
+            backingMap.forEach(action);
+            return;
+        }
+        for (int i = 0; i < maxIdx; ++i) {
+            action.accept(keyAt(i), valueAt(i));
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        if (isBig) {
+            // backing map accepts nulls, which would break arrays later
+            backingMap.replaceAll((key, value) -> {
+                V replacement = function.apply(key, value);
+                checkNullArgument(replacement);
+                return replacement;
+            });
+            return;
+        }
+        for (int i = 0; i < maxIdx; ++i) {
+            V value = function.apply(keyAt(i), valueAt(i));
+            checkNullArgument(value);
+            table[(i << 1) + 1] = value;
+        }
+    }
+
     /**
      * Remove all elements from map, destroy backing map if it was created and
-     * switch to arrays.
+     * switch to arrays. Arrays are allocated again on next put.
      */
     @Override
     public void clear() {
@@ -214,51 +556,161 @@ public class SmallMap<K, V> implements Map<K, V> {
         clearArrays();
     }
 
-    @Override
-    public Set<K> keySet() {
+    /**
+     * Lookup in arrays that tolerates concurrent modification, for optimistic
+     * readers of {@link StampedSmallMap}. Reading inconsistent arrays does not
+     * fail, but equivalence may throw on keys written concurrently and the
+     * result is valid only when no write overlapped the call, which the caller
+     * has to validate.
+     * 
+     * @return value of the key, null when missing or {@link #NOT_IN_ARRAYS}
+     *         when map uses backing map
+     */
+    Object racyGet(Object key) {
         if (isBig) {
-            return backingMap.keySet();
+            return NOT_IN_ARRAYS;
         }
-        if (maxIdx > 0) {
-            Set<K> set = new LinkedHashSet<K>(maxIdx);
-            addAll(set, keys);
-            return Collections.unmodifiableSet(set);
+        Object[] table = this.table;
+        int size = Math.min(maxIdx, table.length >> 1);
+        Equivalence<Object> equivalence = factory.equivalence;
+        for (int i = 0; i < size; i++) {
+            Object candidate = table[i << 1];
+            if (candidate != null && equivalence.equivalent(candidate, key)) {
+                return table[(i << 1) + 1];
+            }
         }
-        return Collections.emptySet();
+        return null;
+    }
+
+    /**
+     * Returns live view of keys. In array mode the view reads arrays of this
+     * map directly, so iterating over it allocates only the iterator. In big
+     * mode it reads current backing map, so it stays valid when the map
+     * switches back to arrays.
+     */
+    @Override
+    public Set<K> keySet() {
+        return new KeySet();
     }
 
+    /**
+     * Returns live view of values, see {@link #keySet()}.
+     */
     @Override
     public Collection<V> values() {
-        if (isBig) {
-            return backingMap.values();
-        }
-        if (maxIdx > 0) {
-            List<V> list = new ArrayList<V>(maxIdx);
-            addAll(list, values);
-            return Collections.unmodifiableList(list);
-        }
-        return Collections.emptyList();
+        return new Values();
     }
 
     /**
-     * Returns set of unmodifiable entries.
+     * Returns live view of entries, see {@link #keySet()}. Entries write
+     * through to the map, {@link Map.Entry#setValue(Object)} replaces value
+     * in place.
      */
     @Override
     public Set<Map.Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    /**
+     * Prepares empty map for given number of entries, so that putting them
+     * does not grow arrays or rehash backing map.
+     */
+    void presize(int entries) {
+        if (entries > factory.threshold()) {
+            backingMap = factory.mapCreator.create(entries);
+            isBig = true;
+        } else {
+            ensureCapacity(entries);
+        }
+    }
+
+    /**
+     * Fills empty map with interleaved entries at once. Arrays are sized
+     * exactly (entries are taken over when they have exactly count of them),
+     * bigger maps go straight to presized backing map.
+     * 
+     * @param uniqueKeys
+     *            whether keys are known to be distinct, so they don't have to
+     *            be looked up
+     */
+    @SuppressWarnings("unchecked")
+    private void load(Object[] entries, int count, boolean uniqueKeys) {
+        if (count > factory.threshold()) {
+            presize(count);
+            for (int i = 0; i < count << 1; i += 2) {
+                put((K) entries[i], (V) entries[i + 1]);
+            }
+            return;
+        }
+        if (count == 0) {
+            return;
+        }
+        if (!uniqueKeys || factory.comparator != null) {
+            table = new Object[count << 1];
+            hashes = hashes != null ? new int[count] : null;
+            for (int i = 0; i < count << 1; i += 2) {
+                put((K) entries[i], (V) entries[i + 1]);
+            }
+            return;
+        }
+        for (int i = 0; i < count << 1; ++i) {
+            checkNullArgument(entries[i]);
+        }
+        table = entries.length == count << 1 ? entries : Arrays.copyOf(entries, count << 1);
+        maxIdx = count;
+        if (hashes != null) {
+            hashes = new int[count];
+            for (int i = 0; i < count; ++i) {
+                hashes[i] = factory.equivalence.hash(table[i << 1]);
+            }
+        }
+    }
+
+    /**
+     * Returns immutable copy of this map for maps that are built once and then
+     * only read. Copy has exactly one slot per entry and no backing map. Up to
+     * 8 entries it is scanned linearly and keeps order of this map, bigger
+     * maps are placed by minimal perfect hash, so lookup (also of missing key)
+     * compares single key.
+     */
+    public Map<K, V> freeze() {
+        Object[] copy;
         if (isBig) {
-            return backingMap.entrySet();
+            copy = new Object[backingMap.size() << 1];
+            int i = 0;
+            for (Map.Entry<K, V> entry : backingMap.entrySet()) {
+                copy[i++] = entry.getKey();
+                copy[i++] = entry.getValue();
+            }
+        } else {
+            copy = Arrays.copyOf(table, maxIdx << 1);
         }
-        Set<Map.Entry<K, V>> set = new LinkedHashSet<Map.Entry<K, V>>(maxIdx);
-        for (int i = 0; i < maxIdx; ++i) {
-            set.add(new MyEntry<K, V>(keys[i], values[i]));
+        return FrozenSmallMap.of(factory.equivalence, copy);
+    }
+
+    /**
+     * Returns cursor over entries of this map. Unlike iterators of
+     * {@link #entrySet()} it creates no objects per entry, in array mode it
+     * reads arrays by index and in backing map mode it walks iterator of the
+     * backing map.
+     */
+    public MapCursor<K, V> cursor() {
+        if (isBig) {
+            return new BackingMapCursor();
         }
-        return Collections.unmodifiableSet(set);
+        return new ArrayCursor();
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (isBig) {
-            return backingMap.equals(obj);
+        if (obj == this) {
+            return true;
+        }
+        if (!isBig && obj instanceof SmallMap) {
+            SmallMap<?, ?> other = (SmallMap<?, ?>) obj;
+            if (!other.isBig && other.factory.equivalence == factory.equivalence) {
+                return equalArrays(other);
+            }
         }
 
         if (!(obj instanceof Map)) {
@@ -270,17 +722,16 @@ public class SmallMap<K, V> implements Map<K, V> {
             return false;
         }
 
-        // iterate over arrays
-        for (int i = 0; i < maxIdx; ++i) {
-            if (!m.containsKey(keys[i])) {
-                return false;
-            }
-            V v = m.get(keys[i]);
-            // null values not allowed
+        // backing map is not asked, values of IdentityHashMap are compared
+        // by reference
+        MapCursor<K, V> cursor = cursor();
+        while (cursor.advance()) {
+            V v = m.get(cursor.key());
+            // null values not allowed, so null means there is no such key
             if (v == null) {
                 return false;
             }
-            if (!v.equals(values[i])) {
+            if (!v.equals(cursor.value())) {
                 return false;
             }
         }
@@ -288,14 +739,45 @@ public class SmallMap<K, V> implements Map<K, V> {
         return true;
     }
 
+    /**
+     * Compares arrays of two maps with the same equivalence. Copies keep order
+     * of keys, so key at the same index is tried before searching for it.
+     */
+    private boolean equalArrays(SmallMap<?, ?> other) {
+        if (other.maxIdx != maxIdx) {
+            return false;
+        }
+        Object[] otherTable = other.table;
+        for (int i = 0; i < maxIdx << 1; i += 2) {
+            Object key = table[i];
+            int idx = i;
+            if (otherTable[i] != key && !factory.equivalence.equivalent(otherTable[i], key)) {
+                idx = other.findKey(key) << 1;
+                if (idx < 0) {
+                    return false;
+                }
+            }
+            if (!table[i + 1].equals(otherTable[idx + 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public int hashCode() {
         if (isBig) {
-            return backingMap.hashCode();
+            // hashed like arrays, so that hash does not change with the mode
+            int hashCode = 0;
+            for (Map.Entry<K, V> entry : backingMap.entrySet()) {
+                hashCode += factory.equivalence.hash(entry.getKey())
+                        ^ entry.getValue().hashCode();
+            }
+            return hashCode;
         }
         int hashCode = 0;
         for (int i = 0; i < maxIdx; ++i) {
-            hashCode += keys[i].hashCode() ^ values[i].hashCode();
+            hashCode += factory.equivalence.hash(keyAt(i)) ^ valueAt(i).hashCode();
         }
         return hashCode;
     }
@@ -319,27 +801,194 @@ public class SmallMap<K, V> implements Map<K, V> {
         return sb.toString();
     }
 
-    private void clearArrays() {
-        for (int i = 0; i < maxIdx; ++i) {
-            keys[i] = null;
-            values[i] = null;
-        }
-        maxIdx = 0;
-    }
-
+    /**
+     * Adds entry with key that is not in arrays yet, switches to backing map
+     * when arrays are full.
+     * 
+     * @param hash
+     *            hash of the key when hashes are cached
+     * @param slot
+     *            negative result of {@link #findSlot(Object, int)}
+     */
+    private void insert(K key, V value, int hash, int slot) {
+        // check if we don't need to convert
+        if (maxIdx >= factory.threshold()) {
+            convertToBackingMap();
+            backingMap.put(key, value);
+            return;
+        }
+        if (maxIdx << 1 == table.length) {
+            ensureCapacity(maxIdx + 1);
+        }
+        insertAt(-slot - 1, key, value, hash);
+    }
+
+    /**
+     * Stores entry at given index, entries from that index on are shifted
+     * right. Arrays need to have room for it.
+     */
+    private void insertAt(int idx, Object key, Object value, int hash) {
+        if (idx < maxIdx) {
+            System.arraycopy(table, idx << 1, table, (idx + 1) << 1, (maxIdx - idx) << 1);
+            if (hashes != null) {
+                System.arraycopy(hashes, idx, hashes, idx + 1, maxIdx - idx);
+            }
+        }
+        maxIdx++;
+        table[idx << 1] = key;
+        table[(idx << 1) + 1] = value;
+        if (hashes != null) {
+            hashes[idx] = hash;
+        }
+    }
+
+    private V setValueAt(int idx, V value) {
+        V previous = valueAt(idx);
+        table[(idx << 1) + 1] = value;
+        return previous;
+    }
+
+    /**
+     * Switches back to arrays when removal left backing map below low
+     * watermark.
+     */
+    /**
+     * Fails like HashMap when function that ran between finding slot of the
+     * key and using it modified the map. Slot stays valid while mode and size
+     * are the same and found key is still at its index.
+     */
+    private void checkUnmodified(int size, int idx, Object found) {
+        if (isBig || maxIdx != size || (idx >= 0 && table[idx << 1] != found)) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    private void checkLowWatermark() {
+        if (isBig && backingMap.size() < factory.lowWatermark) {
+            convertToArrays();
+        }
+    }
+
+    /**
+     * Removes entry at given index of arrays, last entry is moved in its
+     * place. When keys are sorted the following entries are shifted left
+     * instead, either way next entry to visit ends up at the same index.
+     */
+    private V removeAt(int idx) {
+        V value = valueAt(idx);
+        int last = --maxIdx;
+        if (factory.comparator != null) {
+            // keep order, hashes are not cached for sorted keys
+            System.arraycopy(table, (idx + 1) << 1, table, idx << 1, (last - idx) << 1);
+        } else {
+            // move last element in place of removed one
+            table[idx << 1] = table[last << 1];
+            table[(idx << 1) + 1] = table[(last << 1) + 1];
+            if (hashes != null) {
+                hashes[idx] = hashes[last];
+            }
+        }
+        // clear last elements
+        table[last << 1] = null;
+        table[(last << 1) + 1] = null;
+        if (last == 0) {
+            releaseArrays();
+        }
+
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K keyAt(int idx) {
+        return (K) table[idx << 1];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int idx) {
+        return (V) table[(idx << 1) + 1];
+    }
+
+    /**
+     * Make sure arrays can hold given number of entries. Arrays of tiny maps
+     * (up to {@link #MAX_EXACT_SIZE} entries) are sized exactly, so they grow
+     * by one entry at a time, then they double up to threshold size.
+     */
+    private void ensureCapacity(int entries) {
+        if (entries << 1 <= table.length) {
+            return;
+        }
+        // adaptive threshold may have changed since caller checked it
+        int capacity = entries > MAX_EXACT_SIZE ? Math.max(entries,
+                Math.min(entries << 1, factory.threshold())) : entries;
+        Object[] newTable = new Object[capacity << 1];
+        System.arraycopy(table, 0, newTable, 0, maxIdx << 1);
+        table = newTable;
+        if (hashes != null) {
+            int[] newHashes = new int[capacity];
+            System.arraycopy(hashes, 0, newHashes, 0, maxIdx);
+            hashes = newHashes;
+        }
+    }
+
+    /**
+     * Return to shared empty arrays, so that map without entries in arrays
+     * does not hold on to them.
+     */
+    private void releaseArrays() {
+        table = EMPTY_TABLE;
+        if (hashes != null) {
+            hashes = EMPTY_HASHES;
+        }
+    }
+
+    private void clearArrays() {
+        releaseArrays();
+        maxIdx = 0;
+    }
+
     private void convertToBackingMap() {
-        backingMap = mapCreator.create(maxIdx);
+        if (factory.mapCreator instanceof CompactHashMap.Creator && maxIdx > 0) {
+            // compact map takes the arrays over as its entries
+            backingMap = new CompactHashMap<K, V>(factory.equivalence, table, hashes, maxIdx);
+            clearArrays();
+            isBig = true;
+            return;
+        }
+        backingMap = factory.mapCreator.create(maxIdx);
         for (int i = 0; i < maxIdx; ++i) {
-            backingMap.put(keys[i], values[i]);
+            backingMap.put(keyAt(i), valueAt(i));
         }
         clearArrays();
         isBig = true;
     }
 
+    private void convertToArrays() {
+        Map<K, V> map = backingMap;
+        backingMap = null;
+        isBig = false;
+        ensureCapacity(map.size());
+        // keys of backing map are unique, so no need to look them up
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            K key = entry.getKey();
+            if (factory.comparator != null) {
+                insertAt(-search(key) - 1, key, entry.getValue(), 0);
+                continue;
+            }
+            int idx = maxIdx++;
+            table[idx << 1] = key;
+            table[(idx << 1) + 1] = entry.getValue();
+            if (hashes != null) {
+                hashes[idx] = factory.equivalence.hash(key);
+            }
+        }
+    }
+
     private void appendElement(StringBuilder sb, int idx) {
-        sb.append(keys[idx] == this ? "(this Map)" : keys[idx]);
+        K key = keyAt(idx);
+        V value = valueAt(idx);
+        sb.append(key == this ? "(this Map)" : key);
         sb.append("=");
-        sb.append(values[idx] == this ? "(this Map)" : values[idx]);
+        sb.append(value == this ? "(this Map)" : value);
     }
 
     private static void checkNullArgument(Object key) {
@@ -348,21 +997,631 @@ public class SmallMap<K, V> implements Map<K, V> {
         }
     }
 
-    private static <K> void addAll(Collection<K> collection, K[] array) {
-        for (K k : array) {
-            collection.add(k);
+    /**
+     * @return hash of the key when hashes are cached, 0 otherwise
+     */
+    private int hashOf(Object key) {
+        return hashes != null ? factory.equivalence.hash(key) : 0;
+    }
+
+    /**
+     * Finds entry with given key or place for it, reusing hash computed by
+     * {@link #hashOf(Object)}.
+     * 
+     * @return index of entry with given key or (-(index for new entry) - 1)
+     */
+    private int findSlot(Object key, int hash) {
+        if (factory.comparator != null) {
+            return search(key);
+        }
+        int idx = hashes != null ? findIndex(table, hashes, maxIdx, key, hash) : findKey(key);
+        // unsorted arrays are appended to
+        return idx == -1 ? -maxIdx - 1 : idx;
+    }
+
+    /**
+     * Binary search over sorted keys.
+     * 
+     * @return index of entry with given key or (-(insertion point) - 1)
+     */
+    private int search(Object key) {
+        Comparator<Object> comparator = factory.comparator;
+        int low = 0;
+        int high = maxIdx - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = comparator.compare(table[mid << 1], key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
         }
+        return -(low + 1);
     }
 
-    private static int findIndex(Object[] array, int maxIdx, Object key) {
+    /**
+     * @return index of entry with given key or -1
+     */
+    private int findKey(Object key) {
+        if (factory.comparator != null) {
+            int idx = search(key);
+            return idx < 0 ? -1 : idx;
+        }
+        // identity and plain equals have own loops without virtual equivalence
+        if (factory.equivalence == IDENTITY) {
+            return findSame(table, maxIdx, key);
+        }
+        if (hashes != null) {
+            return findIndex(table, hashes, maxIdx, key, factory.equivalence.hash(key));
+        }
+        if (factory.equivalence == EQUALS) {
+            return findIndex(table, maxIdx, key);
+        }
+        for (int i = 0; i < maxIdx; i++) {
+            if (factory.equivalence.equivalent(table[i << 1], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Same as {@link #findKey(Object)}, but some lookups are timed to let
+     * adaptive threshold learn cost of scanning the arrays and hashing keys.
+     */
+    private int findKeySampled(Object key) {
+        AdaptiveThreshold adaptive = factory.adaptive;
+        if (maxIdx == 0 || !adaptive.shouldSample()) {
+            return findKey(key);
+        }
+        int idx = -1;
+        long start = System.nanoTime();
+        for (int i = 0; i < AdaptiveThreshold.SAMPLE_REPEATS; ++i) {
+            idx = findKey(key);
+        }
+        long scanNanos = System.nanoTime() - start;
+        int hash = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < AdaptiveThreshold.SAMPLE_REPEATS; ++i) {
+            hash += factory.equivalence.hash(key);
+        }
+        long hashNanos = System.nanoTime() - start;
+        adaptive.sink = hash;
+
+        int comparisons = idx == -1 ? maxIdx : idx + 1;
+        adaptive.record(maxIdx, comparisons, (double) scanNanos / AdaptiveThreshold.SAMPLE_REPEATS,
+                (double) hashNanos / AdaptiveThreshold.SAMPLE_REPEATS);
+        return idx;
+    }
+
+    private int findIndex(Object[] table, int[] hashes, int maxIdx, Object key, int hash) {
+        for (int i = 0; i < maxIdx; i++) {
+            if (hashes[i] == hash && factory.equivalence.equivalent(table[i << 1], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int findSame(Object[] table, int maxIdx, Object key) {
         for (int i = 0; i < maxIdx; i++) {
-            if (array[i].equals(key)) {
+            if (table[i << 1] == key) {
                 return i;
             }
         }
         return -1;
     }
 
+    private static int findIndex(Object[] table, int maxIdx, Object key) {
+        for (int i = 0; i < maxIdx; i++) {
+            if (table[i << 1].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Iterates over arrays by index. Removal moves last entry in place of the
+     * removed one, so iteration continues from the same index.
+     */
+    private abstract class ArrayIterator<T> implements Iterator<T> {
+        private int next = 0;
+        private int current = -1;
+
+        @Override
+        public boolean hasNext() {
+            return !isBig && next < maxIdx;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            current = next++;
+            return get(current);
+        }
+
+        @Override
+        public void remove() {
+            if (current == -1) {
+                throw new IllegalStateException();
+            }
+            if (isBig || current >= maxIdx) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(current);
+            next = current;
+            current = -1;
+        }
+
+        abstract T get(int idx);
+    }
+
+    /*
+     * Views check mode on every call, so they stay valid when map switches
+     * between arrays and backing map.
+     */
+
+    private class KeySet extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            if (isBig) {
+                return backingMap.keySet().iterator();
+            }
+            return new ArrayIterator<K>() {
+                @Override
+                K get(int idx) {
+                    return keyAt(idx);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return SmallMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return SmallMap.this.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            SmallMap.this.clear();
+        }
+    }
+
+    private class Values extends AbstractCollection<V> {
+        @Override
+        public Iterator<V> iterator() {
+            if (isBig) {
+                return backingMap.values().iterator();
+            }
+            return new ArrayIterator<V>() {
+                @Override
+                V get(int idx) {
+                    return valueAt(idx);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return SmallMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            SmallMap.this.clear();
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            if (isBig) {
+                final Iterator<Map.Entry<K, V>> iterator = backingMap.entrySet().iterator();
+                return new Iterator<Map.Entry<K, V>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<K, V> next() {
+                        return new BackingEntry(iterator.next());
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+            return new ArrayIterator<Map.Entry<K, V>>() {
+                @Override
+                Map.Entry<K, V> get(int idx) {
+                    return new ArrayEntry(idx);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return SmallMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (entry.getKey() == null) {
+                return false;
+            }
+            V value = get(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            SmallMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            SmallMap.this.clear();
+        }
+    }
+
+    private class ArrayCursor implements MapCursor<K, V> {
+        private int next = 0;
+        private int current = -1;
+
+        @Override
+        public boolean advance() {
+            if (isBig) {
+                throw new ConcurrentModificationException();
+            }
+            if (next < maxIdx) {
+                current = next++;
+                return true;
+            }
+            current = -1;
+            return false;
+        }
+
+        @Override
+        public K key() {
+            return keyAt(checkCurrent());
+        }
+
+        @Override
+        public V value() {
+            return valueAt(checkCurrent());
+        }
+
+        @Override
+        public V setValue(V value) {
+            checkNullArgument(value);
+            return setValueAt(checkCurrent(), value);
+        }
+
+        @Override
+        public void remove() {
+            removeAt(checkCurrent());
+            // last entry was moved to current index
+            next = current;
+            current = -1;
+        }
+
+        private int checkCurrent() {
+            if (current == -1) {
+                throw new IllegalStateException("Cursor is not at an entry.");
+            }
+            return current;
+        }
+    }
+
+    private class BackingMapCursor implements MapCursor<K, V> {
+        private final Iterator<Map.Entry<K, V>> iterator = backingMap.entrySet().iterator();
+        private Map.Entry<K, V> current;
+
+        @Override
+        public boolean advance() {
+            if (iterator.hasNext()) {
+                current = iterator.next();
+                return true;
+            }
+            current = null;
+            return false;
+        }
+
+        @Override
+        public K key() {
+            return checkCurrent().getKey();
+        }
+
+        @Override
+        public V value() {
+            return checkCurrent().getValue();
+        }
+
+        @Override
+        public V setValue(V value) {
+            checkNullArgument(value);
+            return checkCurrent().setValue(value);
+        }
+
+        @Override
+        public void remove() {
+            checkCurrent();
+            iterator.remove();
+            current = null;
+        }
+
+        private Map.Entry<K, V> checkCurrent() {
+            if (current == null) {
+                throw new IllegalStateException("Cursor is not at an entry.");
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Entry referencing slot of arrays, so reading and replacing its value
+     * costs no lookup. When the entry was moved by removal of other entries or
+     * by switching to backing map, its key is looked up instead.
+     */
+    /**
+     * Entry of backing map, which would accept null values.
+     */
+    private class BackingEntry implements Map.Entry<K, V> {
+        private final Map.Entry<K, V> entry;
+
+        BackingEntry(Map.Entry<K, V> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public K getKey() {
+            return entry.getKey();
+        }
+
+        @Override
+        public V getValue() {
+            return entry.getValue();
+        }
+
+        @Override
+        public V setValue(V value) {
+            checkNullArgument(value);
+            return entry.setValue(value);
+        }
+
+        @Override
+        public int hashCode() {
+            return factory.equivalence.hash(getKey()) ^ getValue().hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            return factory.equivalence.equivalent(getKey(), other.getKey())
+                    && getValue().equals(other.getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    private class ArrayEntry implements Map.Entry<K, V> {
+        private final int idx;
+        private final K key;
+
+        ArrayEntry(int idx) {
+            this.idx = idx;
+            this.key = keyAt(idx);
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            if (isAtIndex()) {
+                return valueAt(idx);
+            }
+            V value = get(key);
+            if (value == null) {
+                throw new IllegalStateException("Entry was removed from map.");
+            }
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            checkNullArgument(value);
+            if (isAtIndex()) {
+                return setValueAt(idx, value);
+            }
+            if (!containsKey(key)) {
+                throw new IllegalStateException("Entry was removed from map.");
+            }
+            return put(key, value);
+        }
+
+        private boolean isAtIndex() {
+            return !isBig && idx < maxIdx && table[idx << 1] == key;
+        }
+
+        @Override
+        public int hashCode() {
+            return factory.equivalence.hash(key) ^ getValue().hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            return factory.equivalence.equivalent(key, other.getKey())
+                    && getValue().equals(other.getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
+    /**
+     * Collects entries and builds SmallMap with all of them at once, see
+     * {@link SmallMap#builder()}. Builder is empty again after
+     * {@link #build()}.
+     */
+    public static final class Builder<K, V> {
+        private final SmallMapFactory factory;
+        private Object[] entries = EMPTY_TABLE;
+        private int count = 0;
+        private boolean uniqueKeys = false;
+
+        Builder(SmallMapFactory factory) {
+            this.factory = factory;
+        }
+
+        /**
+         * Makes room for given number of entries, so that map of exactly that
+         * size takes the array over.
+         */
+        public Builder<K, V> expectedSize(int size) {
+            if (size > count) {
+                entries = Arrays.copyOf(entries, size << 1);
+            }
+            return this;
+        }
+
+        /**
+         * Promises that all keys are distinct, so build() does not look them
+         * up. Map built from duplicate keys is corrupted.
+         */
+        public Builder<K, V> trustUniqueKeys() {
+            uniqueKeys = true;
+            return this;
+        }
+
+        /**
+         * Adds entry, later entries with the same key replace earlier ones
+         * unless keys are trusted to be unique.
+         * 
+         * @throws NullPointerException
+         *             when key or value is null
+         */
+        public Builder<K, V> put(K key, V value) {
+            checkNullArgument(key);
+            checkNullArgument(value);
+            if (count << 1 == entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(8, entries.length << 1));
+            }
+            entries[count << 1] = key;
+            entries[(count << 1) + 1] = value;
+            count++;
+            return this;
+        }
+
+        public Builder<K, V> putAll(Map<? extends K, ? extends V> m) {
+            expectedSize(count + m.size());
+            for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        public SmallMap<K, V> build() {
+            SmallMap<K, V> map = new SmallMap<K, V>(factory);
+            map.load(entries, count, uniqueKeys);
+            entries = EMPTY_TABLE;
+            count = 0;
+            return map;
+        }
+    }
+
+    /**
+     * @return builder of maps with default threshold of 5 and HashMap creator
+     *         for backing map
+     */
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<K, V>(SmallMapFactory.DEFAULT);
+    }
+
+    /**
+     * @return builder of maps with settings of given factory
+     */
+    public static <K, V> Builder<K, V> builder(SmallMapFactory factory) {
+        return new Builder<K, V>(factory);
+    }
+
+    /**
+     * Creates map of keys and values with the same indexes, later keys replace
+     * earlier equal ones.
+     */
+    public static <K, V> SmallMap<K, V> fromArrays(K[] keys, V[] values) {
+        return fromArrays(SmallMapFactory.DEFAULT, keys, values, false);
+    }
+
+    /**
+     * Creates map of keys and values with the same indexes using settings of
+     * given factory.
+     * 
+     * @param uniqueKeys
+     *            whether keys are known to be distinct, so they don't have to
+     *            be looked up (map built from duplicate keys is corrupted)
+     */
+    public static <K, V> SmallMap<K, V> fromArrays(SmallMapFactory factory, K[] keys,
+            V[] values, boolean uniqueKeys) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " keys and "
+                    + values.length + " values");
+        }
+        Object[] entries = new Object[keys.length << 1];
+        for (int i = 0; i < keys.length; ++i) {
+            entries[i << 1] = keys[i];
+            entries[(i << 1) + 1] = values[i];
+        }
+        SmallMap<K, V> map = new SmallMap<K, V>(factory);
+        map.load(entries, keys.length, uniqueKeys);
+        return map;
+    }
+
     public static <K, V> SmallMap<K, V> newSmallMap() {
         return new SmallMap<K, V>();
     }
@@ -370,4 +1629,12 @@ public class SmallMap<K, V> implements Map<K, V> {
     public static <K, V> SmallMap<K, V> newSmallMap(int i) {
         return new SmallMap<K, V>(i);
     }
+
+    /**
+     * Create new SmallMap with default threshold that compares keys by
+     * reference (like IdentityHashMap).
+     */
+    public static <K, V> SmallMap<K, V> newIdentitySmallMap() {
+        return new SmallMap<K, V>(IDENTITY_FACTORY);
+    }
 }
@@ -0,0 +1,486 @@
+package eu.blacksoft.smallmap;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Stores many small maps with int keys and values outside of the heap, so
+ * they are neither scanned nor copied by GC.
+ *
+ * Every map gets slot of fixed size in direct ByteBuffers allocated in chunks:
+ * number of entries followed by threshold of interleaved keys and values,
+ * searched linearly like arrays of {@link IntIntSmallMap}. Maps are identified
+ * by int handles returned by {@link #allocate()}, so holding millions of them
+ * costs no objects. {@link #map(int)} returns Map view of single map with a
+ * flyweight object. When map exceeds threshold its entries move to
+ * TIntIntHashMap on the heap and stay there until {@link #clear(int)}.
+ *
+ * Slots of freed maps are reused by later allocations. {@link #close()} frees
+ * all maps at once by dropping the buffers, handles must not be used
+ * afterwards. Missing keys are reported with 0 by primitive methods.
+ *
+ * Main don'ts: - Is not thread-safe. - Handles of freed maps are not detected
+ * once their slot is reused.
+ */
+public final class SmallMapArena implements Closeable {
+    private static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+    private static final int NO_ENTRY_VALUE = 0;
+    /**
+     * Entry count of map whose entries moved to heap.
+     */
+    private static final int OVERFLOW = -1;
+    /**
+     * Entry count of freed slot.
+     */
+    private static final int FREE = -2;
+    /**
+     * Index of key of map whose entries moved to heap.
+     */
+    private static final int IN_OVERFLOW = -2;
+
+    private final int threshold;
+    private final int slotBytes;
+    private final int slotsPerChunk;
+    private ByteBuffer[] chunks = new ByteBuffer[1];
+    /**
+     * Number of slots ever allocated, handles are below it.
+     */
+    private int slots = 0;
+    private final TIntArrayList freeSlots = new TIntArrayList();
+    private final TIntObjectHashMap<TIntIntMap> overflow = new TIntObjectHashMap<TIntIntMap>();
+    private boolean closed = false;
+
+    /**
+     * Create new arena with threshold of 5 entries per map and chunks of 1 MiB.
+     */
+    public SmallMapArena() {
+        this(SmallMapFactory.DEFAULT_SIZE, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param threshold
+     *            maximal number of entries stored off heap, bigger maps move to
+     *            heap
+     * @param chunkBytes
+     *            size of single direct buffer
+     */
+    public SmallMapArena(int threshold, int chunkBytes) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+        }
+        this.threshold = threshold;
+        this.slotBytes = 4 + (threshold << 3);
+        if (chunkBytes < slotBytes) {
+            throw new IllegalArgumentException("Chunk of " + chunkBytes
+                    + " bytes can't hold map of " + slotBytes + " bytes");
+        }
+        this.slotsPerChunk = chunkBytes / slotBytes;
+    }
+
+    /**
+     * @return handle of new empty map
+     */
+    public int allocate() {
+        checkOpen();
+        int handle;
+        if (!freeSlots.isEmpty()) {
+            handle = freeSlots.removeAt(freeSlots.size() - 1);
+        } else {
+            handle = slots++;
+            int chunk = handle / slotsPerChunk;
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length << 1);
+            }
+            if (chunks[chunk] == null) {
+                chunks[chunk] = ByteBuffer.allocateDirect(slotsPerChunk * slotBytes).order(
+                        ByteOrder.nativeOrder());
+            }
+        }
+        chunk(handle).putInt(offset(handle), 0);
+        return handle;
+    }
+
+    /**
+     * Frees map, its slot will be reused by later allocations.
+     */
+    public void free(int handle) {
+        if (entries(handle) == OVERFLOW) {
+            overflow.remove(handle);
+        }
+        chunk(handle).putInt(offset(handle), FREE);
+        freeSlots.add(handle);
+    }
+
+    /**
+     * @return number of maps that were allocated and not freed
+     */
+    public int mapCount() {
+        return slots - freeSlots.size();
+    }
+
+    /**
+     * @return bytes of direct buffers allocated by this arena
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (ByteBuffer chunk : chunks) {
+            if (chunk != null) {
+                bytes += chunk.capacity();
+            }
+        }
+        return bytes;
+    }
+
+    public int size(int handle) {
+        int size = entries(handle);
+        return size == OVERFLOW ? overflow.get(handle).size() : size;
+    }
+
+    public boolean containsKey(int handle, int key) {
+        int idx = indexOf(handle, key);
+        if (idx == IN_OVERFLOW) {
+            return overflow.get(handle).containsKey(key);
+        }
+        return idx != -1;
+    }
+
+    /**
+     * @return value of key or 0 when there is no such key
+     */
+    public int get(int handle, int key) {
+        int idx = indexOf(handle, key);
+        if (idx == IN_OVERFLOW) {
+            return overflow.get(handle).get(key);
+        }
+        return idx == -1 ? NO_ENTRY_VALUE : chunk(handle).getInt(valueOffset(offset(handle), idx));
+    }
+
+    /**
+     * @return value of key or null when there is no such key, found with
+     *         single scan of the slot
+     */
+    private Integer find(int handle, int key) {
+        int idx = indexOf(handle, key);
+        if (idx == IN_OVERFLOW) {
+            TIntIntMap map = overflow.get(handle);
+            return map.containsKey(key) ? map.get(key) : null;
+        }
+        return idx == -1 ? null : chunk(handle).getInt(valueOffset(offset(handle), idx));
+    }
+
+    /**
+     * @return previous value of key or 0 when there was no such key
+     */
+    public int put(int handle, int key, int value) {
+        int idx = indexOf(handle, key);
+        if (idx == IN_OVERFLOW) {
+            return overflow.get(handle).put(key, value);
+        }
+        return putAt(handle, idx, key, value);
+    }
+
+    /**
+     * Puts entry into slot of map without looking the key up.
+     * 
+     * @param idx
+     *            index of the key in the slot or -1 when it is missing
+     */
+    private int putAt(int handle, int idx, int key, int value) {
+        ByteBuffer chunk = chunk(handle);
+        int offset = offset(handle);
+        int size = entries(chunk, offset);
+        if (idx != -1) {
+            int old = chunk.getInt(valueOffset(offset, idx));
+            chunk.putInt(valueOffset(offset, idx), value);
+            return old;
+        }
+        if (size == threshold) {
+            TIntIntMap map = new TIntIntHashMap(threshold << 1, 0.5f, 0, NO_ENTRY_VALUE);
+            for (int i = 0; i < size; ++i) {
+                map.put(chunk.getInt(keyOffset(offset, i)), chunk.getInt(valueOffset(offset, i)));
+            }
+            map.put(key, value);
+            overflow.put(handle, map);
+            chunk.putInt(offset, OVERFLOW);
+            return NO_ENTRY_VALUE;
+        }
+        chunk.putInt(keyOffset(offset, size), key);
+        chunk.putInt(valueOffset(offset, size), value);
+        chunk.putInt(offset, size + 1);
+        return NO_ENTRY_VALUE;
+    }
+
+    /**
+     * @return removed value of key or 0 when there was no such key
+     */
+    public int remove(int handle, int key) {
+        int idx = indexOf(handle, key);
+        if (idx == IN_OVERFLOW) {
+            return overflow.get(handle).remove(key);
+        }
+        if (idx == -1) {
+            return NO_ENTRY_VALUE;
+        }
+        return removeAt(handle, idx);
+    }
+
+    /**
+     * Removes entry at given index of slot of map.
+     */
+    private int removeAt(int handle, int idx) {
+        ByteBuffer chunk = chunk(handle);
+        int offset = offset(handle);
+        int size = entries(chunk, offset);
+        int old = chunk.getInt(valueOffset(offset, idx));
+        int last = size - 1;
+        // move last entry to removed place
+        chunk.putInt(keyOffset(offset, idx), chunk.getInt(keyOffset(offset, last)));
+        chunk.putInt(valueOffset(offset, idx), chunk.getInt(valueOffset(offset, last)));
+        chunk.putInt(offset, last);
+        return old;
+    }
+
+    /**
+     * Removes all entries of map, map moved to heap returns to the arena.
+     */
+    public void clear(int handle) {
+        if (entries(handle) == OVERFLOW) {
+            overflow.remove(handle);
+        }
+        chunk(handle).putInt(offset(handle), 0);
+    }
+
+    /**
+     * @return keys of map in iteration order
+     */
+    public int[] keys(int handle) {
+        ByteBuffer chunk = chunk(handle);
+        int offset = offset(handle);
+        int size = entries(chunk, offset);
+        if (size == OVERFLOW) {
+            return overflow.get(handle).keys();
+        }
+        int[] keys = new int[size];
+        for (int i = 0; i < size; ++i) {
+            keys[i] = chunk.getInt(keyOffset(offset, i));
+        }
+        return keys;
+    }
+
+    /**
+     * Returns Map view of map with given handle. View holds only the handle,
+     * it does not accept null keys or values and must not be used after the
+     * map is freed.
+     */
+    public Map<Integer, Integer> map(int handle) {
+        entries(handle);
+        return new ArenaMap(handle);
+    }
+
+    /**
+     * Frees all maps at once. Memory of direct buffers is released when they
+     * are collected.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        chunks = new ByteBuffer[0];
+        slots = 0;
+        freeSlots.clear();
+        overflow.clear();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Arena is closed");
+        }
+    }
+
+    private ByteBuffer chunk(int handle) {
+        checkOpen();
+        if (handle < 0 || handle >= slots) {
+            throw new IllegalArgumentException("Unknown map: " + handle);
+        }
+        return chunks[handle / slotsPerChunk];
+    }
+
+    private int offset(int handle) {
+        return (handle % slotsPerChunk) * slotBytes;
+    }
+
+    private int entries(int handle) {
+        return entries(chunk(handle), offset(handle));
+    }
+
+    private static int entries(ByteBuffer chunk, int offset) {
+        int size = chunk.getInt(offset);
+        if (size == FREE) {
+            throw new IllegalStateException("Map was freed");
+        }
+        return size;
+    }
+
+    /**
+     * @return index of key in slot of map, -1 when it is missing or
+     *         {@link #IN_OVERFLOW} when entries of map moved to heap
+     */
+    private int indexOf(int handle, int key) {
+        ByteBuffer chunk = chunk(handle);
+        int offset = offset(handle);
+        int size = entries(chunk, offset);
+        return size == OVERFLOW ? IN_OVERFLOW : indexOf(chunk, offset, size, key);
+    }
+
+    private static int indexOf(ByteBuffer chunk, int offset, int size, int key) {
+        for (int i = 0; i < size; ++i) {
+            if (chunk.getInt(keyOffset(offset, i)) == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int keyOffset(int offset, int idx) {
+        return offset + 4 + (idx << 3);
+    }
+
+    private static int valueOffset(int offset, int idx) {
+        return offset + 8 + (idx << 3);
+    }
+
+    /**
+     * Flyweight view of single map, boxes keys and values on access.
+     */
+    private final class ArenaMap extends AbstractMap<Integer, Integer> {
+        private final int handle;
+
+        ArenaMap(int handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        public int size() {
+            return SmallMapArena.this.size(handle);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Integer get(Object key) {
+            if (key == null) {
+                throw new NullPointerException("This map does not accept null keys or values.");
+            }
+            if (!(key instanceof Integer)) {
+                return null;
+            }
+            return find(handle, (Integer) key);
+        }
+
+        @Override
+        public Integer put(Integer key, Integer value) {
+            if (key == null || value == null) {
+                throw new NullPointerException("This map does not accept null keys or values.");
+            }
+            int idx = indexOf(handle, key);
+            if (idx == IN_OVERFLOW) {
+                TIntIntMap map = overflow.get(handle);
+                boolean present = map.containsKey(key);
+                int old = map.put(key, value);
+                return present ? old : null;
+            }
+            int old = putAt(handle, idx, key, value);
+            return idx == -1 ? null : old;
+        }
+
+        @Override
+        public Integer remove(Object key) {
+            if (key == null) {
+                throw new NullPointerException("This map does not accept null keys or values.");
+            }
+            if (!(key instanceof Integer)) {
+                return null;
+            }
+            int idx = indexOf(handle, (Integer) key);
+            if (idx == IN_OVERFLOW) {
+                TIntIntMap map = overflow.get(handle);
+                return map.containsKey((Integer) key) ? map.remove((Integer) key) : null;
+            }
+            return idx == -1 ? null : removeAt(handle, idx);
+        }
+
+        @Override
+        public void clear() {
+            SmallMapArena.this.clear(handle);
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, Integer>> entrySet() {
+            return new AbstractSet<Map.Entry<Integer, Integer>>() {
+                @Override
+                public Iterator<Map.Entry<Integer, Integer>> iterator() {
+                    return new EntryIterator(handle);
+                }
+
+                @Override
+                public int size() {
+                    return ArenaMap.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Walks keys the map had when the iterator was created.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<Integer, Integer>> {
+        private final int handle;
+        private final int[] keys;
+        private int idx = 0;
+        private boolean canRemove = false;
+
+        EntryIterator(int handle) {
+            this.handle = handle;
+            this.keys = keys(handle);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return idx < keys.length;
+        }
+
+        @Override
+        public Map.Entry<Integer, Integer> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int key = keys[idx++];
+            canRemove = true;
+            return new AbstractMap.SimpleImmutableEntry<Integer, Integer>(key, get(handle, key));
+        }
+
+        @Override
+        public void remove() {
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            canRemove = false;
+            SmallMapArena.this.remove(handle, keys[idx - 1]);
+        }
+    }
+}
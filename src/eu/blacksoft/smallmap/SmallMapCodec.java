@@ -0,0 +1,312 @@
+package eu.blacksoft.smallmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Compact binary format of maps with pluggable serializers of keys and values.
+ *
+ * Map is written as number of entries followed by key and value records of
+ * every entry, each record prefixed with its length. Numbers of entries and
+ * lengths are unsigned varints (7 bits per byte, lowest first), so small maps
+ * pay single byte for them. Entries of SmallMap are read with its cursor,
+ * which in array mode walks the arrays directly.
+ *
+ * Decoded maps are created by the factory and sized up front: maps that fit
+ * into threshold get arrays of their size, bigger ones get backing map big
+ * enough to never rehash. {@link #decode(ByteBuffer)} passes serializers
+ * records as views of the buffer, so bytes are not copied.
+ *
+ * Codec is immutable and thread-safe if its serializers are.
+ */
+public final class SmallMapCodec<K, V> {
+    /**
+     * Writes and reads single key or value.
+     */
+    public interface Serializer<T> {
+        /**
+         * Writes value, length of the record is written by the codec.
+         */
+        void write(T value, DataOutput out) throws IOException;
+
+        /**
+         * Reads value from record, buffer is positioned at the start of the
+         * record and limited to its end.
+         */
+        T read(ByteBuffer record);
+    }
+
+    /**
+     * Strings in UTF-8.
+     */
+    public static final Serializer<String> STRING = new Serializer<String>() {
+        @Override
+        public void write(String value, DataOutput out) throws IOException {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String read(ByteBuffer record) {
+            if (record.hasArray()) {
+                return new String(record.array(), record.arrayOffset() + record.position(),
+                        record.remaining(), StandardCharsets.UTF_8);
+            }
+            byte[] bytes = new byte[record.remaining()];
+            record.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Integers in 4 bytes.
+     */
+    public static final Serializer<Integer> INTEGER = new Serializer<Integer>() {
+        @Override
+        public void write(Integer value, DataOutput out) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer record) {
+            return record.getInt();
+        }
+    };
+
+    /**
+     * Longs in 8 bytes.
+     */
+    public static final Serializer<Long> LONG = new Serializer<Long>() {
+        @Override
+        public void write(Long value, DataOutput out) throws IOException {
+            out.writeLong(value);
+        }
+
+        @Override
+        public Long read(ByteBuffer record) {
+            return record.getLong();
+        }
+    };
+
+    private static final int MAX_PRESIZE = 1 << 16;
+
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final SmallMapFactory factory;
+
+    /**
+     * Create codec decoding maps with default threshold of 5 and HashMap
+     * creator for backing map.
+     */
+    public SmallMapCodec(Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(keySerializer, valueSerializer, SmallMapFactory.DEFAULT);
+    }
+
+    /**
+     * Create codec decoding maps with settings of given factory.
+     */
+    public SmallMapCodec(Serializer<K> keySerializer, Serializer<V> valueSerializer,
+            SmallMapFactory factory) {
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.factory = factory;
+    }
+
+    /**
+     * Writes entries of any map, null keys or values are not supported.
+     */
+    public void write(Map<? extends K, ? extends V> map, DataOutput out) throws IOException {
+        Records records = new Records();
+        writeVarint(map.size(), out);
+        if (map instanceof SmallMap) {
+            @SuppressWarnings("unchecked")
+            MapCursor<K, V> cursor = ((SmallMap<K, V>) map).cursor();
+            while (cursor.advance()) {
+                records.write(keySerializer, cursor.key(), out);
+                records.write(valueSerializer, cursor.value(), out);
+            }
+            return;
+        }
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            records.write(keySerializer, entry.getKey(), out);
+            records.write(valueSerializer, entry.getValue(), out);
+        }
+    }
+
+    /**
+     * @return bytes of single map
+     */
+    public byte[] encode(Map<? extends K, ? extends V> map) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(map, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // serializers write to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads map written by {@link #write(Map, DataOutput)}.
+     */
+    public SmallMap<K, V> read(DataInput in) throws IOException {
+        int size = readVarint(in);
+        SmallMap<K, V> map = factory.create();
+        // size of corrupted stream can't be checked up front
+        map.presize(Math.min(size, MAX_PRESIZE));
+        InputRecord record = new InputRecord();
+        for (int i = 0; i < size; ++i) {
+            K key = keySerializer.read(record.read(in));
+            map.put(key, valueSerializer.read(record.read(in)));
+        }
+        return map;
+    }
+
+    /**
+     * Reads map starting at position of the buffer and moves the position
+     * after it. Buffer should be in big endian order when serializers read
+     * numbers written by DataOutput.
+     *
+     * @throws IllegalArgumentException
+     *             when the buffer does not contain valid map
+     * @throws java.nio.BufferUnderflowException
+     *             when the buffer ends inside of varint
+     */
+    public SmallMap<K, V> decode(ByteBuffer buffer) {
+        int size = readVarint(buffer);
+        if (size > buffer.remaining() / 2) {
+            throw new IllegalArgumentException("Map of " + size + " entries can't fit into "
+                    + buffer.remaining() + " bytes");
+        }
+        SmallMap<K, V> map = factory.create();
+        map.presize(size);
+        ByteBuffer record = buffer.duplicate();
+        record.order(buffer.order());
+        for (int i = 0; i < size; ++i) {
+            K key = keySerializer.read(record(buffer, record));
+            map.put(key, valueSerializer.read(record(buffer, record)));
+        }
+        return map;
+    }
+
+    /**
+     * @return bytes of record of key without its length
+     */
+    byte[] keyRecord(K key) {
+        Records records = new Records();
+        try {
+            keySerializer.write(key, records.data);
+        } catch (IOException e) {
+            // serializers write to memory
+            throw new IllegalStateException(e);
+        }
+        return records.toByteArray();
+    }
+
+    SmallMapFactory factory() {
+        return factory;
+    }
+
+    K readKey(ByteBuffer record) {
+        return keySerializer.read(record);
+    }
+
+    V readValue(ByteBuffer record) {
+        return valueSerializer.read(record);
+    }
+
+    /**
+     * Points record at the next record of buffer and moves buffer after it.
+     */
+    static ByteBuffer record(ByteBuffer buffer, ByteBuffer record) {
+        int length = readVarint(buffer);
+        int start = buffer.position();
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("Record of " + length + " bytes exceeds buffer");
+        }
+        buffer.position(start + length);
+        record.clear();
+        record.position(start);
+        record.limit(start + length);
+        return record;
+    }
+
+    static void writeVarint(int value, DataOutput out) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    throw new IOException("Negative varint: " + value);
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Negative varint: " + value);
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Reads records of stream into reused buffer.
+     */
+    private static final class InputRecord {
+        private byte[] bytes = new byte[16];
+        private ByteBuffer record = ByteBuffer.wrap(bytes);
+
+        ByteBuffer read(DataInput in) throws IOException {
+            int length = readVarint(in);
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length << 1)];
+                record = ByteBuffer.wrap(bytes);
+            }
+            in.readFully(bytes, 0, length);
+            record.clear();
+            record.limit(length);
+            return record;
+        }
+    }
+
+    /**
+     * Serializes records into reused buffer, so that their length can be
+     * written before them.
+     */
+    private static final class Records extends ByteArrayOutputStream {
+        private final DataOutputStream data = new DataOutputStream(this);
+
+        <T> void write(Serializer<T> serializer, T value, DataOutput out) throws IOException {
+            reset();
+            serializer.write(value, data);
+            writeVarint(count, out);
+            out.write(buf, 0, count);
+        }
+    }
+}
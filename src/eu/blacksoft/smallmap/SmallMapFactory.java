@@ -0,0 +1,262 @@
+package eu.blacksoft.smallmap;
+
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.google.common.base.Equivalence;
+import com.google.common.collect.Maps;
+
+/**
+ * Immutable configuration shared by SmallMaps: threshold, backing map creator,
+ * key equivalence, whether key hashes are cached, when to switch back from
+ * backing map to arrays and whether keys are kept sorted.
+ *
+ * Maps reference their factory instead of holding all the settings, so sharing
+ * one factory between many maps keeps every map as small as possible. Each
+ * withXxx method returns new factory and leaves this one unchanged.
+ * 
+ * Threshold can also be learned at runtime, see
+ * {@link #withAdaptiveThreshold(int, int)}.
+ */
+public final class SmallMapFactory {
+    static final int DEFAULT_SIZE = 5;
+    static final MapCreator DEFAULT_CREATOR = new MapCreator() {
+        @Override
+        public <K, V> Map<K, V> create(int initialSize) {
+            return Maps.newHashMapWithExpectedSize(initialSize);
+        }
+    };
+    static final MapCreator IDENTITY_CREATOR = new MapCreator() {
+        @Override
+        public <K, V> Map<K, V> create(int initialSize) {
+            return new IdentityHashMap<K, V>(initialSize);
+        }
+    };
+    static final Equivalence<Object> EQUALS = Equivalence.equals();
+    static final Equivalence<Object> IDENTITY = Equivalence.identity();
+
+    /**
+     * Factories with default settings for small thresholds, so that
+     * {@link SmallMap#SmallMap(int)} does not create a factory per map.
+     */
+    private static final SmallMapFactory[] DEFAULTS = new SmallMapFactory[33];
+    static {
+        for (int i = 0; i < DEFAULTS.length; ++i) {
+            DEFAULTS[i] = new SmallMapFactory(i, DEFAULT_CREATOR, EQUALS, false, 0, null, null);
+        }
+    }
+
+    /**
+     * Threshold of 5, HashMap as backing map and keys compared with equals.
+     */
+    public static final SmallMapFactory DEFAULT = DEFAULTS[DEFAULT_SIZE];
+
+    final int threshold;
+    final MapCreator mapCreator;
+    final Equivalence<Object> equivalence;
+    final boolean cacheHashes;
+    final int lowWatermark;
+    /**
+     * Learned threshold, null when threshold is fixed.
+     */
+    final AdaptiveThreshold adaptive;
+    /**
+     * Order of keys in arrays, null when keys are not sorted.
+     */
+    final Comparator<Object> comparator;
+
+    @SuppressWarnings("unchecked")
+    private SmallMapFactory(int threshold, MapCreator mapCreator, Equivalence<?> equivalence,
+            boolean cacheHashes, int lowWatermark, AdaptiveThreshold adaptive,
+            Comparator<?> comparator) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold can't be negative: " + threshold);
+        }
+        int lowestThreshold = adaptive != null ? adaptive.minThreshold : threshold;
+        if (lowWatermark < 0 || lowWatermark > 0 && lowWatermark >= lowestThreshold) {
+            throw new IllegalArgumentException("Low watermark " + lowWatermark
+                    + " has to be lower than threshold " + lowestThreshold);
+        }
+        if (mapCreator == null || equivalence == null) {
+            throw new NullPointerException("Map creator and equivalence are required.");
+        }
+        if (adaptive != null && comparator != null) {
+            // learned costs assume linear scan
+            throw new IllegalArgumentException(
+                    "Adaptive threshold can't be used with sorted keys.");
+        }
+        this.threshold = threshold;
+        this.mapCreator = mapCreator;
+        this.equivalence = (Equivalence<Object>) equivalence;
+        // identity and binary search never call equals, so there is nothing
+        // to save
+        this.cacheHashes = cacheHashes && equivalence != IDENTITY && comparator == null;
+        this.lowWatermark = lowWatermark;
+        this.adaptive = adaptive;
+        this.comparator = (Comparator<Object>) comparator;
+    }
+
+    private static SmallMapFactory of(int threshold, MapCreator mapCreator,
+            Equivalence<?> equivalence, boolean cacheHashes, int lowWatermark,
+            AdaptiveThreshold adaptive, Comparator<?> comparator) {
+        if (mapCreator == DEFAULT_CREATOR && equivalence == EQUALS && !cacheHashes
+                && lowWatermark == 0 && adaptive == null && comparator == null
+                && threshold < DEFAULTS.length) {
+            return DEFAULTS[threshold];
+        }
+        return new SmallMapFactory(threshold, mapCreator, equivalence, cacheHashes, lowWatermark,
+                adaptive, comparator);
+    }
+
+    /**
+     * @param threshold
+     *            maximal size of elements stored in internal arrays. When this
+     *            is exceeded maps switch to backing map.
+     */
+    public SmallMapFactory withThreshold(int threshold) {
+        return of(threshold, mapCreator, equivalence, cacheHashes, lowWatermark, adaptive,
+                comparator);
+    }
+
+    /**
+     * @param mapCreator
+     *            Provider of backing map instances. Every invocation should
+     *            return empty map comparing keys with the same equivalence as
+     *            this factory.
+     */
+    public SmallMapFactory withMapCreator(MapCreator mapCreator) {
+        return of(threshold, mapCreator, equivalence, cacheHashes, lowWatermark, adaptive,
+                comparator);
+    }
+
+    /**
+     * Sets equivalence of keys together with matching backing map: HashMap for
+     * {@link Equivalence#equals()}, IdentityHashMap for
+     * {@link Equivalence#identity()} and map of wrapped keys otherwise. Compact
+     * backing map (see {@link #withCompactBackingMap()}) is kept and compares
+     * keys with the new equivalence. Use {@link #withMapCreator(MapCreator)}
+     * afterwards to override the backing map.
+     */
+    public SmallMapFactory withEquivalence(Equivalence<?> equivalence) {
+        MapCreator creator = mapCreator instanceof CompactHashMap.Creator ? CompactHashMap
+                .creator(equivalence) : creatorFor(equivalence);
+        return of(threshold, creator, equivalence, cacheHashes, lowWatermark, adaptive,
+                comparator);
+    }
+
+    /**
+     * Uses compact insertion ordered hash map as backing map. It has no object
+     * per entry: keys and values stay in a dense array like in array mode and
+     * a small 16 bit index (32 bit for huge maps) points into it. When a map
+     * exceeds the threshold its arrays are handed over to the backing map
+     * instead of being copied, so iteration order is kept as well. Keys are
+     * compared with equivalence of this factory.
+     */
+    public SmallMapFactory withCompactBackingMap() {
+        return of(threshold, CompactHashMap.creator(equivalence), equivalence, cacheHashes,
+                lowWatermark, adaptive, comparator);
+    }
+
+    /**
+     * Enables or disables caching of key hashes. Lookups compare hash codes
+     * first and call equals only when they match, so misses don't call equals
+     * at all. Worth it for keys with expensive equals (long strings, composite
+     * keys), costs additional int per slot.
+     */
+    public SmallMapFactory withCachedHashes(boolean cacheHashes) {
+        return of(threshold, mapCreator, equivalence, cacheHashes, lowWatermark, adaptive,
+                comparator);
+    }
+
+    /**
+     * Makes maps switch back from backing map to arrays when removal leaves
+     * fewer than lowWatermark entries in backing map. Maps switch to backing
+     * map only when they exceed the threshold, so the gap between both values
+     * keeps maps that grow and shrink around one size from converting back and
+     * forth; about half of the threshold is a good start.
+     * 
+     * @param lowWatermark
+     *            lower than threshold, 0 (default) keeps backing map until
+     *            {@link SmallMap#clear()}
+     */
+    public SmallMapFactory withLowWatermark(int lowWatermark) {
+        return of(threshold, mapCreator, equivalence, cacheHashes, lowWatermark, adaptive,
+                comparator);
+    }
+
+    /**
+     * Makes threshold adaptive. Maps created from returned factory (and
+     * factories derived from it with withXxx methods) sample cost of their
+     * lookups and share the learned threshold, so it adapts to the keys used
+     * at one allocation site. For threshold adapting per map create new
+     * adaptive factory for every map.
+     * 
+     * Current threshold of this factory is used until enough samples are
+     * collected.
+     * 
+     * @param minThreshold
+     *            lowest threshold that can be learned
+     * @param maxThreshold
+     *            highest threshold that can be learned
+     */
+    public SmallMapFactory withAdaptiveThreshold(int minThreshold, int maxThreshold) {
+        return of(threshold, mapCreator, equivalence, cacheHashes, lowWatermark,
+                new AdaptiveThreshold(threshold, minThreshold, maxThreshold), comparator);
+    }
+
+    /**
+     * Keeps keys in arrays sorted in their natural order, see
+     * {@link #withSortedKeys(Comparator)}.
+     */
+    public SmallMapFactory withSortedKeys() {
+        return withSortedKeys(Comparator.naturalOrder());
+    }
+
+    /**
+     * Keeps keys in arrays sorted by given comparator. Lookups use binary
+     * search and puts shift greater keys to make room, so threshold can be
+     * raised well above the default (to 16-64) before maps need backing map.
+     * 
+     * Keys in arrays are compared with the comparator only, it has to be
+     * consistent with equivalence of this factory (like comparator of
+     * TreeMap with equals). Hashes are not cached in this mode and threshold
+     * can't be adaptive.
+     */
+    public SmallMapFactory withSortedKeys(Comparator<?> comparator) {
+        if (comparator == null) {
+            throw new NullPointerException("Comparator is required.");
+        }
+        return of(threshold, mapCreator, equivalence, cacheHashes, lowWatermark, adaptive,
+                comparator);
+    }
+
+    /**
+     * @return maximal number of elements stored in arrays, for adaptive
+     *         threshold the currently learned one
+     */
+    public int getThreshold() {
+        return threshold();
+    }
+
+    int threshold() {
+        return adaptive == null ? threshold : adaptive.threshold();
+    }
+
+    /**
+     * @return new empty SmallMap using this factory
+     */
+    public <K, V> SmallMap<K, V> create() {
+        return new SmallMap<K, V>(this);
+    }
+
+    private static MapCreator creatorFor(Equivalence<?> equivalence) {
+        if (equivalence == EQUALS) {
+            return DEFAULT_CREATOR;
+        }
+        if (equivalence == IDENTITY) {
+            return IDENTITY_CREATOR;
+        }
+        return EquivalenceMap.creator(equivalence);
+    }
+}
@@ -0,0 +1,305 @@
+package eu.blacksoft.smallmap;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * File of many maps encoded by {@link SmallMapCodec}, opened by memory mapping
+ * and read lazily.
+ *
+ * Maps are written one after another by {@link Writer}, followed by table of
+ * their offsets, number of maps and magic number. Opening the store maps the
+ * file and checks the trailer, nothing is decoded. {@link #get(int)} returns
+ * read-only view of single map: lookup walks its records comparing bytes of
+ * keys with bytes of the probed key and decodes only the matching value, so
+ * key serializer has to write equal keys as equal bytes (as the built-in ones
+ * do). Comparing bytes agrees only with equals, so stores are opened only with
+ * codecs whose factory compares keys with equals. Lookup of key of other type
+ * than the serializer writes fails with ClassCastException.
+ * {@link #load(int)} decodes the whole map to SmallMap.
+ *
+ * Store is limited to 2 GiB, the size of single mapped buffer. It is
+ * immutable and views can be used from many threads.
+ */
+public final class SmallMapStore<K, V> implements Closeable {
+    static final int MAGIC = 0x534D4150;
+    private static final int TRAILER_BYTES = 8;
+
+    private final SmallMapCodec<K, V> codec;
+    private final FileChannel channel;
+    private final ByteBuffer data;
+    private final int count;
+    private final int offsets;
+
+    private SmallMapStore(SmallMapCodec<K, V> codec, FileChannel channel, ByteBuffer data,
+            int count, int offsets) {
+        this.codec = codec;
+        this.channel = channel;
+        this.data = data;
+        this.count = count;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Maps file written by {@link Writer}.
+     *
+     * @throws IOException
+     *             when file can't be read or is not a store
+     * @throws IllegalArgumentException
+     *             when factory of the codec doesn't compare keys with equals
+     */
+    public static <K, V> SmallMapStore<K, V> open(Path file, SmallMapCodec<K, V> codec)
+            throws IOException {
+        if (codec.factory().equivalence != SmallMapFactory.EQUALS) {
+            // views compare bytes of keys, which agrees only with equals
+            throw new IllegalArgumentException("Keys of stored maps have to be compared with "
+                    + "equals, not " + codec.factory().equivalence);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Store is bigger than 2 GiB: " + file);
+            }
+            if (length < TRAILER_BYTES) {
+                throw new IOException("Not a store of maps: " + file);
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int trailer = (int) length - TRAILER_BYTES;
+            int count = data.getInt(trailer);
+            if (data.getInt(trailer + 4) != MAGIC || count < 0 || count > trailer >> 2) {
+                throw new IOException("Not a store of maps: " + file);
+            }
+            int offsets = trailer - (count << 2);
+            return new SmallMapStore<K, V>(codec, channel, data, count, offsets);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates writer of new store, existing file is replaced.
+     */
+    public static <K, V> Writer<K, V> writer(Path file, SmallMapCodec<K, V> codec)
+            throws IOException {
+        return new Writer<K, V>(file, codec);
+    }
+
+    /**
+     * @return number of maps in store
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return read-only view of map with given index, decoding entries on
+     *         access
+     */
+    public Map<K, V> get(int index) {
+        return new StoredMap(offset(index));
+    }
+
+    /**
+     * @return map with given index decoded at once
+     */
+    public SmallMap<K, V> load(int index) {
+        return codec.decode(buffer(offset(index)));
+    }
+
+    /**
+     * Closes the file. Mapped memory is released when the buffer is collected,
+     * views must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int offset(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + count);
+        }
+        return data.getInt(offsets + (index << 2));
+    }
+
+    /**
+     * @return buffer of its own positioned at offset, so that views don't
+     *         share position
+     */
+    private ByteBuffer buffer(int offset) {
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(offset);
+        return buffer;
+    }
+
+    private static void skipRecord(ByteBuffer buffer) {
+        int length = SmallMapCodec.readVarint(buffer);
+        buffer.position(buffer.position() + length);
+    }
+
+    private static boolean matches(ByteBuffer buffer, int start, byte[] probe) {
+        for (int i = 0; i < probe.length; ++i) {
+            if (buffer.get(start + i) != probe[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes maps of new store, index of every map is its order. Store is
+     * complete only after {@link #close()}.
+     */
+    public static final class Writer<K, V> implements Closeable {
+        private final SmallMapCodec<K, V> codec;
+        private final DataOutputStream out;
+        private int[] offsets = new int[16];
+        private int count = 0;
+
+        private Writer(Path file, SmallMapCodec<K, V> codec) throws IOException {
+            this.codec = codec;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        }
+
+        /**
+         * @return index of written map
+         */
+        public int add(Map<? extends K, ? extends V> map) throws IOException {
+            int offset = out.size();
+            if (offset == Integer.MAX_VALUE) {
+                // size of DataOutputStream stops there
+                throw new IOException("Store is bigger than 2 GiB");
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count << 1);
+            }
+            codec.write(map, out);
+            offsets[count] = offset;
+            return count++;
+        }
+
+        /**
+         * Writes table of offsets and closes the file.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                for (int i = 0; i < count; ++i) {
+                    out.writeInt(offsets[i]);
+                }
+                out.writeInt(count);
+                out.writeInt(MAGIC);
+                if (out.size() == Integer.MAX_VALUE) {
+                    throw new IOException("Store is bigger than 2 GiB");
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * View of single stored map, holds only its offset.
+     */
+    private final class StoredMap extends AbstractMap<K, V> {
+        private final int offset;
+
+        StoredMap(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public int size() {
+            return SmallMapCodec.readVarint(buffer(offset));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V get(Object key) {
+            if (key == null) {
+                throw new NullPointerException("This map does not accept null keys or values.");
+            }
+            byte[] probe = codec.keyRecord((K) key);
+            ByteBuffer buffer = buffer(offset);
+            int size = SmallMapCodec.readVarint(buffer);
+            for (int i = 0; i < size; ++i) {
+                int length = SmallMapCodec.readVarint(buffer);
+                int start = buffer.position();
+                buffer.position(start + length);
+                if (length == probe.length && matches(buffer, start, probe)) {
+                    return codec.readValue(SmallMapCodec.record(buffer, buffer.duplicate()));
+                }
+                skipRecord(buffer);
+            }
+            return null;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    return new EntryIterator(buffer(offset));
+                }
+
+                @Override
+                public int size() {
+                    return StoredMap.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Decodes entries one by one, returned entries are immutable.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final ByteBuffer buffer;
+        private final ByteBuffer record;
+        private int remaining;
+
+        EntryIterator(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.remaining = SmallMapCodec.readVarint(buffer);
+            this.record = buffer.duplicate();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            K key = codec.readKey(SmallMapCodec.record(buffer, record));
+            V value = codec.readValue(SmallMapCodec.record(buffer, record));
+            return new AbstractMap.SimpleImmutableEntry<K, V>(key, value);
+        }
+    }
+}
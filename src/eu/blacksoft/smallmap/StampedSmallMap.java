@@ -0,0 +1,311 @@
+package eu.blacksoft.smallmap;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Thread-safe {@link SmallMap} for maps read from many threads and rarely
+ * modified.
+ *
+ * Writes modify the arrays of the map in place under write lock of a
+ * StampedLock, so unlike {@link ConcurrentSmallMap} they don't allocate.
+ * {@link #get(Object)}, {@link #containsKey(Object)} and
+ * {@link #getOrDefault(Object, Object)} in array mode read without locking
+ * and validate the stamp afterwards, they take read lock only when a write
+ * interfered (or comparing keys failed on data being written). All other
+ * reads (and reads in backing map mode) take read lock.
+ *
+ * Functions passed to compute, merge, replaceAll and forEach run under the
+ * lock, which is not reentrant, so they must not access the map. Views are
+ * unmodifiable snapshots taken under read lock.
+ */
+public class StampedSmallMap<K, V> extends AbstractMap<K, V> {
+    private final StampedLock lock = new StampedLock();
+    private final SmallMap<K, V> map;
+
+    /**
+     * Create new map with default threshold of 5 and HashMap creator for
+     * backing map.
+     */
+    public StampedSmallMap() {
+        this(SmallMapFactory.DEFAULT);
+    }
+
+    /**
+     * Create new map with settings of given factory.
+     */
+    public StampedSmallMap(SmallMapFactory factory) {
+        this.map = new SmallMap<K, V>(factory);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            throw new NullPointerException("This map does not accept null keys or values.");
+        }
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                Object value = map.racyGet(key);
+                if (value != SmallMap.NOT_IN_ARRAYS && lock.validate(stamp)) {
+                    return (V) value;
+                }
+            } catch (RuntimeException e) {
+                // equals of key seen half-published by a write, retry under lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return map.get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        V value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return map.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        long stamp = lock.readLock();
+        try {
+            return map.containsValue(value);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            return map.put(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        long stamp = lock.writeLock();
+        try {
+            map.putAll(m);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        long stamp = lock.writeLock();
+        try {
+            return map.remove(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            map.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            return map.putIfAbsent(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        long stamp = lock.writeLock();
+        try {
+            return map.remove(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            return map.replace(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        long stamp = lock.writeLock();
+        try {
+            return map.replace(key, oldValue, newValue);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return map.computeIfAbsent(key, mappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V computeIfPresent(K key,
+            BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return map.computeIfPresent(key, remappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return map.compute(key, remappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V merge(K key, V value,
+            BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return map.merge(key, value, remappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        long stamp = lock.writeLock();
+        try {
+            map.replaceAll(function);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        long stamp = lock.readLock();
+        try {
+            map.forEach(action);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return snapshot().keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return snapshot().values();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return snapshot().entrySet();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        long stamp = lock.readLock();
+        try {
+            return map.equals(obj);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        long stamp = lock.readLock();
+        try {
+            return map.hashCode();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public String toString() {
+        long stamp = lock.readLock();
+        try {
+            return map.toString();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return unmodifiable copy of entries in iteration order of the map
+     */
+    private Map<K, V> snapshot() {
+        long stamp = lock.readLock();
+        try {
+            return Collections.unmodifiableMap(new LinkedHashMap<K, V>(map));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package eu.blacksoft.smallmap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class AdaptiveThresholdTest {
+
+	@Test
+	public void shouldKeepInitialThresholdUntilWarmedUp() {
+		// given
+		AdaptiveThreshold adaptive = new AdaptiveThreshold(5, 1, 32);
+
+		// when
+		adaptive.record(5, 5, 100, 1);
+
+		// then
+		assertThat(adaptive.threshold()).isEqualTo(5);
+	}
+
+	@Test
+	public void shouldRaiseThresholdForCheapEquals() {
+		// given
+		AdaptiveThreshold adaptive = new AdaptiveThreshold(5, 1, 32);
+
+		// when
+		record(adaptive, 5, 5, 5, 20);
+
+		// then
+		// 1ns per comparison against 20 + 1 + 4 ns of hash lookup
+		assertThat(adaptive.threshold()).isEqualTo(25);
+	}
+
+	@Test
+	public void shouldLowerThresholdForExpensiveEquals() {
+		// given
+		AdaptiveThreshold adaptive = new AdaptiveThreshold(5, 1, 32);
+
+		// when
+		record(adaptive, 4, 2, 100, 2);
+
+		// then
+		// half of 4 keys compared, 50ns each against 2 + 50 + 4 ns
+		assertThat(adaptive.threshold()).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldStayWithinLimits() {
+		// given
+		AdaptiveThreshold adaptive = new AdaptiveThreshold(5, 3, 8);
+
+		// when
+		record(adaptive, 5, 5, 5, 1000);
+
+		// then
+		assertThat(adaptive.threshold()).isEqualTo(8);
+	}
+
+	@Test
+	public void shouldShareThresholdBetweenMapsOfFactory() {
+		// given
+		SmallMapFactory factory = SmallMapFactory.DEFAULT.withAdaptiveThreshold(1, 8);
+		SmallMap<String, Integer> map = factory.create();
+		for (int i = 0; i < 5; ++i) {
+			map.put("key" + i, i);
+		}
+
+		// when
+		record(factory.adaptive, 5, 5, 5, 1000);
+		for (int i = 5; i < 8; ++i) {
+			map.put("key" + i, i);
+		}
+		String beforeLowering = map.toString();
+		record(factory.adaptive, 4, 2, 1000, 0);
+		SmallMap<String, Integer> otherMap = factory.withCachedHashes(true).create();
+		otherMap.put("abc", 1);
+		otherMap.put("def", 2);
+		otherMap.put("xyz", 3);
+		map.put("xyz", 9);
+
+		// then
+		assertThat(beforeLowering).startsWith("[Small]");
+		assertThat(factory.getThreshold()).isLessThanOrEqualTo(2);
+		assertThat(otherMap.toString()).startsWith("[Big]");
+		assertThat(map.toString()).startsWith("[Big]");
+		assertThat(map.size()).isEqualTo(9);
+		assertThat(map.get("key7")).isEqualTo(7);
+	}
+
+	@Test
+	public void shouldSampleLookups() {
+		// given
+		SmallMapFactory factory = SmallMapFactory.DEFAULT.withAdaptiveThreshold(1, 64);
+		SmallMap<String, Integer> map = factory.create();
+		map.put("abc", 1);
+		map.put("def", 2);
+
+		// when
+		int found = 0;
+		for (int i = 0; i < 100000; ++i) {
+			if (map.containsKey("def") && map.get("xyz") == null) {
+				found++;
+			}
+		}
+
+		// then
+		assertThat(found).isEqualTo(100000);
+		assertThat(factory.getThreshold()).isGreaterThanOrEqualTo(1).isLessThanOrEqualTo(64);
+	}
+
+	private void record(AdaptiveThreshold adaptive, int size, int comparisons, double scanNanos,
+			double hashNanos) {
+		for (int i = 0; i < 32; ++i) {
+			adaptive.record(size, comparisons, scanNanos, hashNanos);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package eu.blacksoft.smallmap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.base.Equivalence;
+
+public class CompactHashMapTest {
+
+	@Test
+	public void shouldBehaveLikeLinkedHashMap() {
+		// given
+		Map<Integer, Integer> map = new CompactHashMap<Integer, Integer>(Equivalence.equals(), 0);
+		Map<Integer, Integer> expected = new LinkedHashMap<Integer, Integer>();
+		Random random = new Random(0);
+
+		for (int i = 0; i < 20000; ++i) {
+			// when
+			Integer key = random.nextInt(200);
+			if (random.nextInt(3) == 0) {
+				assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+			} else {
+				assertThat(map.put(key, i)).isEqualTo(expected.put(key, i));
+			}
+
+			// then
+			assertThat(map.size()).isEqualTo(expected.size());
+		}
+		assertThat(new ArrayList<Integer>(map.keySet())).isEqualTo(
+				new ArrayList<Integer>(expected.keySet()));
+		assertThat(map).isEqualTo(expected);
+		assertThat(map.hashCode()).isEqualTo(expected.hashCode());
+	}
+
+	@Test
+	public void shouldSwitchToWideIndexForHugeMaps() {
+		// given
+		Map<Integer, Integer> map = new CompactHashMap<Integer, Integer>(Equivalence.equals(), 0);
+
+		// when
+		for (int i = 0; i < 70000; ++i) {
+			map.put(i, i);
+		}
+
+		// then
+		assertThat(map.size()).isEqualTo(70000);
+		for (int i = 0; i < 70000; i += 7) {
+			assertThat(map.get(i)).isEqualTo(i);
+		}
+		assertThat(map.get(70000)).isNull();
+	}
+
+	@Test
+	public void shouldKeepInsertionOrderOfSmallMapAfterSwitching() {
+		// given
+		SmallMap<String, Integer> map = SmallMapFactory.DEFAULT.withCompactBackingMap().create();
+		List<String> keys = new ArrayList<String>();
+
+		// when
+		for (int i = 20; i > 0; --i) {
+			String key = "key" + i;
+			keys.add(key);
+			map.put(key, i);
+		}
+
+		// then
+		assertThat(map.toString()).startsWith("[Big]");
+		assertThat(new ArrayList<String>(map.keySet())).isEqualTo(keys);
+		assertThat(map.get("key20")).isEqualTo(20);
+	}
+
+	@Test
+	public void shouldAdoptCachedHashes() {
+		// given
+		SmallMap<String, Integer> map = SmallMapFactory.DEFAULT.withThreshold(2)
+				.withCachedHashes(true).withCompactBackingMap().create();
+
+		// when
+		map.put("abc", 1);
+		map.put("def", 2);
+		map.put("ghi", 3);
+
+		// then
+		assertThat(map.toString()).isEqualTo("[Big]{abc=1, def=2, ghi=3}");
+		assertThat(map.get("def")).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldRemoveAndUpdateThroughIterators() {
+		// given
+		Map<String, Integer> map = new CompactHashMap<String, Integer>(Equivalence.equals(), 0);
+		map.put("abc", 1);
+		map.put("def", 2);
+		map.put("ghi", 3);
+
+		// when
+		Iterator<Entry<String, Integer>> iterator = map.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Entry<String, Integer> entry = iterator.next();
+			if (entry.getKey().equals("def")) {
+				iterator.remove();
+			} else {
+				entry.setValue(entry.getValue() * 10);
+			}
+		}
+
+		// then
+		assertThat(map.toString()).isEqualTo("{abc=10, ghi=30}");
+		assertThat(map.containsKey("def")).isFalse();
+		assertThat(map.containsValue(30)).isTrue();
+	}
+
+	@Test
+	public void shouldEmptyThroughIterator() {
+		// given
+		Map<String, Integer> map = new CompactHashMap<String, Integer>(Equivalence.equals(), 0);
+		map.put("abc", 1);
+		map.put("def", 2);
+
+		// when
+		Iterator<String> iterator = map.keySet().iterator();
+		while (iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+		map.put("ghi", 3);
+
+		// then
+		assertThat(map.toString()).isEqualTo("{ghi=3}");
+	}
+
+	@Test
+	public void shouldCompareKeysWithEquivalence() {
+		// given
+		SmallMap<String, Integer> map = SmallMapFactory.DEFAULT.withThreshold(1)
+				.withCompactBackingMap().withEquivalence(Equivalence.identity()).create();
+		String key = "abc";
+
+		// when
+		map.put(key, 1);
+		map.put(new String(key), 2);
+
+		// then
+		assertThat(map.size()).isEqualTo(2);
+		assertThat(map.get(key)).isEqualTo(1);
+		assertThat(map.get(new String(key))).isNull();
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void shouldNotAcceptNullValues() {
+		new CompactHashMap<String, Integer>(Equivalence.equals(), 0).put("abc", null);
+	}
+}
@@ -0,0 +1,187 @@
+package eu.blacksoft.smallmap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class ConcurrentSmallMapTest {
+
+	@Test
+	public void shouldPutGetAndRemoveInArrayMode() {
+		// given
+		ConcurrentMap<String, Integer> map = new ConcurrentSmallMap<String, Integer>(3);
+
+		// when
+		map.put("abc", 1);
+		map.put("def", 2);
+		map.put("abc", 3);
+		map.putIfAbsent("def", 4);
+		map.putIfAbsent("ghi", 5);
+		map.remove("ghi");
+
+		// then
+		assertThat(map).isEqualTo(ImmutableMap.of("abc", 3, "def", 2));
+		assertThat(map.containsValue(2)).isTrue();
+		assertThat(map.get("ghi")).isNull();
+	}
+
+	@Test
+	public void shouldReplaceAndRemoveConditionally() {
+		for (int threshold : new int[] { 5, 1 }) {
+			// given
+			ConcurrentMap<String, Integer> map = new ConcurrentSmallMap<String, Integer>(threshold);
+			map.put("abc", 1);
+			map.put("def", 2);
+
+			// then
+			assertThat(map.replace("abc", 2, 3)).isFalse();
+			assertThat(map.replace("abc", 1, 3)).isTrue();
+			assertThat(map.replace("def", 4)).isEqualTo(2);
+			assertThat(map.replace("ghi", 4)).isNull();
+			assertThat(map.remove("def", 2)).isFalse();
+			assertThat(map.remove("def", 4)).isTrue();
+			assertThat(map).isEqualTo(ImmutableMap.of("abc", 3));
+		}
+	}
+
+	@Test
+	public void shouldSwitchToConcurrentHashMap() {
+		// given
+		ConcurrentSmallMap<String, Integer> map = new ConcurrentSmallMap<String, Integer>(2);
+
+		// when
+		map.put("abc", 1);
+		map.put("def", 2);
+		map.put("ghi", 3);
+		map.clear();
+		map.put("xyz", 4);
+
+		// then
+		assertThat(map).isEqualTo(ImmutableMap.of("xyz", 4));
+		assertThat(map.get("abc")).isNull();
+	}
+
+	@Test
+	public void shouldIterateOverSnapshot() {
+		// given
+		ConcurrentSmallMap<String, Integer> map = new ConcurrentSmallMap<String, Integer>();
+		map.put("abc", 1);
+		map.put("def", 2);
+		List<String> visited = new ArrayList<String>();
+
+		// when
+		Iterator<String> iterator = map.keySet().iterator();
+		map.put("ghi", 3);
+		while (iterator.hasNext()) {
+			String key = iterator.next();
+			visited.add(key);
+			if (key.equals("abc")) {
+				iterator.remove();
+			}
+		}
+
+		// then
+		assertThat(visited).containsExactly("abc", "def");
+		assertThat(map).isEqualTo(ImmutableMap.of("def", 2, "ghi", 3));
+	}
+
+	@Test
+	public void shouldComputeWithDefaultMethods() {
+		// given
+		ConcurrentMap<String, Integer> map = new ConcurrentSmallMap<String, Integer>();
+
+		// when
+		map.computeIfAbsent("abc", k -> 1);
+		map.merge("abc", 2, Integer::sum);
+		map.compute("def", (k, v) -> v == null ? 5 : v);
+
+		// then
+		assertThat(map).isEqualTo(ImmutableMap.of("abc", 3, "def", 5));
+	}
+
+	@Test
+	public void shouldNotLoseUpdatesOfConcurrentWriters() throws InterruptedException {
+		// given
+		final ConcurrentMap<Integer, Integer> map = new ConcurrentSmallMap<Integer, Integer>(16);
+		final int threads = 4;
+		final int increments = 2000;
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; ++t) {
+			final int thread = t;
+			Thread worker = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < increments; ++i) {
+						// shared counters and keys private to each thread, 24
+						// keys in total so the map switches while in use
+						map.merge(i % 4, 1, Integer::sum);
+						map.put(100 + thread * 5 + i % 5, i);
+					}
+				}
+			};
+			worker.start();
+			workers.add(worker);
+		}
+
+		// when
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		// then
+		assertThat(map.size()).isEqualTo(4 + threads * 5);
+		for (int key = 0; key < 4; ++key) {
+			assertThat(map.get(key)).isEqualTo(threads * increments / 4);
+		}
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void shouldNotAcceptNullValues() {
+		new ConcurrentSmallMap<String, Integer>().put("abc", null);
+	}
+
+	@Test
+	public void shouldNotRemoveEntryWithNullValueInAnyMode() {
+		for (int threshold : new int[] { 5, 1 }) {
+			// given
+			ConcurrentMap<String, Integer> map = new ConcurrentSmallMap<String, Integer>(threshold);
+			map.put("abc", 1);
+			map.put("def", 2);
+
+			// when
+			boolean removed = map.remove("abc", null);
+
+			// then
+			assertThat(removed).isFalse();
+			assertThat(map.get("abc")).isEqualTo(1);
+		}
+	}
+
+	@Test
+	public void shouldBehaveLikeConcurrentHashMapForMissingKeys() {
+		// given
+		ConcurrentMap<String, Integer> map = new ConcurrentSmallMap<String, Integer>();
+		ConcurrentMap<String, Integer> expected = new ConcurrentHashMap<String, Integer>();
+
+		// then
+		assertThat(map.remove("abc")).isEqualTo(expected.remove("abc"));
+		assertThat(map.replace("abc", 1)).isEqualTo(expected.replace("abc", 1));
+		assertThat(map.isEmpty()).isTrue();
+	}
+}
@@ -0,0 +1,167 @@
+package eu.blacksoft.smallmap;
+
+import gnu.trove.map.hash.THashMap;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Computes exact memory footprint of maps by walking their object graphs.
+ *
+ * Footprint of a map is the number of bytes retained by that single instance:
+ * keys, values and any objects shared between instances (like static map
+ * creators) are not counted. It is measured as the difference between the
+ * graph of two equal maps and the graph of one of them, so it does not depend
+ * on GC or allocation noise.
+ *
+ * Run {@link #main(String[])} (or gradle footprint) to print the report for
+ * the current VM. Compressed oops can be switched with -XX:-UseCompressedOops.
+ */
+public class FootprintReport {
+	static final int[] SIZES = { 0, 1, 2, 3, 4, 5, 6, 8, 16, 32 };
+
+	public interface MapFactory {
+		/**
+		 * @return map with given content
+		 */
+		Map<String, Integer> create(Map<String, Integer> content);
+	}
+
+	static final Map<String, MapFactory> FACTORIES = new LinkedHashMap<String, MapFactory>();
+	static {
+		FACTORIES.put("SmallMap", new MapFactory() {
+			@Override
+			public Map<String, Integer> create(Map<String, Integer> content) {
+				SmallMap<String, Integer> map = SmallMap.newSmallMap();
+				map.putAll(content);
+				return map;
+			}
+		});
+		FACTORIES.put("SmallMap(16)", new MapFactory() {
+			@Override
+			public Map<String, Integer> create(Map<String, Integer> content) {
+				SmallMap<String, Integer> map = SmallMap.newSmallMap(16);
+				map.putAll(content);
+				return map;
+			}
+		});
+		FACTORIES.put("SmallMap compact", new MapFactory() {
+			private final SmallMapFactory factory = SmallMapFactory.DEFAULT
+					.withCompactBackingMap();
+
+			@Override
+			public Map<String, Integer> create(Map<String, Integer> content) {
+				// one by one, so arrays are handed over to backing map
+				SmallMap<String, Integer> map = factory.create();
+				for (Map.Entry<String, Integer> entry : content.entrySet()) {
+					map.put(entry.getKey(), entry.getValue());
+				}
+				return map;
+			}
+		});
+		FACTORIES.put("SmallMap frozen", new MapFactory() {
+			@Override
+			public Map<String, Integer> create(Map<String, Integer> content) {
+				SmallMap<String, Integer> map = SmallMap.newSmallMap();
+				map.putAll(content);
+				return map.freeze();
+			}
+		});
+		FACTORIES.put("SmallMap shaped", new MapFactory() {
+			private final KeySchema root = KeySchema.root(SmallMapFactory.DEFAULT
+					.withThreshold(32));
+
+			@Override
+			public Map<String, Integer> create(Map<String, Integer> content) {
+				ShapedSmallMap<String, Integer> map = new ShapedSmallMap<String, Integer>(root);
+				map.putAll(content);
+				return map;
+			}
+		});
+		FACTORIES.put("HashMap", new MapFactory() {
+			@Override
+			public Map<String, Integer> create(Map<String, Integer> content) {
+				return new HashMap<String, Integer>(content);
+			}
+		});
+		FACTORIES.put("THashMap", new MapFactory() {
+			@Override
+			public Map<String, Integer> create(Map<String, Integer> content) {
+				return new THashMap<String, Integer>(content);
+			}
+		});
+		FACTORIES.put("ImmutableMap", new MapFactory() {
+			@Override
+			public Map<String, Integer> create(Map<String, Integer> content) {
+				return ImmutableMap.copyOf(content);
+			}
+		});
+	}
+
+	/**
+	 * Creates content with given number of entries. Keys and values are shared
+	 * between all maps created from it.
+	 */
+	static Map<String, Integer> content(int size) {
+		Map<String, Integer> content = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < size; ++i) {
+			content.put("key" + i, 1000 + i);
+		}
+		return content;
+	}
+
+	/**
+	 * @return bytes retained by single map created by factory
+	 */
+	static long footprint(MapFactory factory, Map<String, Integer> content) {
+		Map<String, Integer> first = factory.create(content);
+		Map<String, Integer> second = factory.create(content);
+		long both = GraphLayout.parseInstance(first, second).totalSize();
+		long one = GraphLayout.parseInstance(first).totalSize();
+		return both - one;
+	}
+
+	/**
+	 * Describes how SmallMap stores given number of entries.
+	 */
+	static String smallMapMode(String name, int size) {
+		if (name.equals("SmallMap frozen")) {
+			return size > FrozenSmallMap.MAX_LINEAR_SIZE ? "perfect" : "linear";
+		}
+		if (name.equals("SmallMap shaped")) {
+			return "shaped";
+		}
+		int threshold = name.equals("SmallMap(16)") ? 16 : 5;
+		return size > threshold ? "backing" : "array";
+	}
+
+	public static void main(String[] args) {
+		System.out.println(VM.current().details());
+		StringBuilder header = new StringBuilder(String.format("%-22s", "bytes per map"));
+		for (int size : SIZES) {
+			header.append(String.format("%8d", size));
+		}
+		System.out.println(header);
+
+		for (Map.Entry<String, MapFactory> entry : FACTORIES.entrySet()) {
+			StringBuilder row = new StringBuilder(String.format("%-22s", entry.getKey()));
+			for (int size : SIZES) {
+				row.append(String.format("%8d", footprint(entry.getValue(), content(size))));
+			}
+			System.out.println(row);
+			if (entry.getKey().startsWith("SmallMap")) {
+				StringBuilder modes = new StringBuilder(String.format("%-22s", "  mode"));
+				for (int size : SIZES) {
+					modes.append(String.format("%8s", smallMapMode(entry.getKey(), size)));
+				}
+				System.out.println(modes);
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package eu.blacksoft.smallmap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import com.google.common.base.Strings;
+
+public class FootprintTest {
+
+	@Test
+	public void shouldNotCountSharedKeysAndValues() {
+		// given
+		Map<String, Integer> content = FootprintReport.content(3);
+		Map<String, Integer> longKeys = new LinkedHashMap<String, Integer>();
+		for (Map.Entry<String, Integer> entry : content.entrySet()) {
+			longKeys.put(Strings.repeat(entry.getKey(), 100), entry.getValue());
+		}
+
+		// when
+		long footprint = footprint("SmallMap", content);
+		long longKeysFootprint = footprint("SmallMap", longKeys);
+
+		// then
+		assertThat(footprint).isEqualTo(longKeysFootprint);
+	}
+
+	@Test
+	public void shouldHaveLowerFootprintThanHashMapInArrayMode() {
+		for (int size = 0; size <= 5; ++size) {
+			// given
+			Map<String, Integer> content = FootprintReport.content(size);
+
+			// when
+			long smallMap = footprint("SmallMap", content);
+			long hashMap = footprint("HashMap", content);
+			long troveMap = footprint("THashMap", content);
+
+			// then
+			assertThat(smallMap).as("SmallMap vs HashMap for " + size).isLessThan(hashMap);
+			assertThat(smallMap).as("SmallMap vs THashMap for " + size).isLessThan(troveMap);
+		}
+	}
+
+	@Test
+	public void shouldHaveLowerFootprintThanHashMapWithCompactBackingMap() {
+		for (int size = 6; size <= 32; ++size) {
+			// given
+			Map<String, Integer> content = FootprintReport.content(size);
+
+			// when
+			long compact = footprint("SmallMap compact", content);
+			long hashMap = footprint("HashMap", content);
+
+			// then
+			assertThat(compact).as("compact SmallMap vs HashMap for " + size).isLessThan(hashMap);
+		}
+	}
+
+	@Test
+	public void shouldHaveLowerFootprintThanImmutableMapWhenFrozen() {
+		for (int size : FootprintReport.SIZES) {
+			if (size == 0) {
+				// empty ImmutableMap is a singleton
+				continue;
+			}
+			// given
+			Map<String, Integer> content = FootprintReport.content(size);
+
+			// when
+			long frozen = footprint("SmallMap frozen", content);
+			long immutableMap = footprint("ImmutableMap", content);
+
+			// then
+			assertThat(frozen).as("frozen SmallMap vs ImmutableMap for " + size).isLessThan(
+					immutableMap);
+		}
+	}
+
+	@Test
+	public void shouldHaveLowerFootprintThanSmallMapWithSharedSchema() {
+		for (int size = 0; size <= 16; ++size) {
+			// given
+			Map<String, Integer> content = FootprintReport.content(size);
+
+			// when
+			long shaped = footprint("SmallMap shaped", content);
+			long smallMap = footprint("SmallMap(16)", content);
+
+			// then
+			assertThat(shaped).as("shaped SmallMap vs SmallMap for " + size).isLessThan(smallMap);
+		}
+	}
+
+	@Test
+	public void shouldSizeArraysOfBuiltMapExactly() {
+		// given
+		SmallMap<String, Integer> put = SmallMap.newSmallMap(16);
+		SmallMap.Builder<String, Integer> builder = SmallMap.builder(SmallMapFactory.DEFAULT
+				.withThreshold(16));
+		for (Map.Entry<String, Integer> entry : FootprintReport.content(6).entrySet()) {
+			put.put(entry.getKey(), entry.getValue());
+			builder.put(entry.getKey(), entry.getValue());
+		}
+
+		// when
+		SmallMap<String, Integer> built = builder.build();
+
+		// then
+		// put grows arrays to 10 entries
+		assertThat(GraphLayout.parseInstance(built).totalSize()).isLessThan(
+				GraphLayout.parseInstance(put).totalSize());
+	}
+
+	@Test
+	public void shouldGrowWithEveryEntryOfTinyMap() {
+		// given
+		long previous = footprint("SmallMap", FootprintReport.content(0));
+
+		for (int size = 1; size <= 4; ++size) {
+			// when
+			long footprint = footprint("SmallMap", FootprintReport.content(size));
+
+			// then
+			assertThat(footprint).as("SmallMap of " + size).isGreaterThan(previous);
+			previous = footprint;
+		}
+	}
+
+	@Test
+	public void shouldReleaseArraysWhenEmptied() {
+		// given
+		final Map<String, Integer> content = FootprintReport.content(3);
+		long empty = footprint("SmallMap", FootprintReport.content(0));
+
+		// when
+		long afterRemove = FootprintReport.footprint(new FootprintReport.MapFactory() {
+			@Override
+			public Map<String, Integer> create(Map<String, Integer> ignored) {
+				SmallMap<String, Integer> map = SmallMap.newSmallMap();
+				map.putAll(content);
+				for (String key : content.keySet()) {
+					map.remove(key);
+				}
+				return map;
+			}
+		}, content);
+		long afterClear = FootprintReport.footprint(new FootprintReport.MapFactory() {
+			@Override
+			public Map<String, Integer> create(Map<String, Integer> ignored) {
+				SmallMap<String, Integer> map = SmallMap.newSmallMap();
+				map.putAll(content);
+				map.put("abc", 1);
+				map.put("def", 2);
+				map.put("xyz", 3);
+				map.clear();
+				return map;
+			}
+		}, content);
+
+		// then
+		assertThat(afterRemove).isEqualTo(empty);
+		assertThat(afterClear).isEqualTo(empty);
+	}
+
+	private long footprint(String name, Map<String, Integer> content) {
+		return FootprintReport.footprint(FootprintReport.FACTORIES.get(name), content);
+	}
+}
@@ -0,0 +1,113 @@
+package eu.blacksoft.smallmap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.base.Equivalence;
+import com.google.common.collect.ImmutableMap;
+
+public class FrozenSmallMapTest {
+
+	@Test
+	public void shouldContainAllEntriesOfEverySize() {
+		for (int size = 0; size <= 200; ++size) {
+			// given
+			SmallMap<String, Integer> map = SmallMap.newSmallMap();
+			Map<String, Integer> expected = new HashMap<String, Integer>();
+			for (int i = 0; i < size; ++i) {
+				map.put("key" + i, i);
+				expected.put("key" + i, i);
+			}
+
+			// when
+			Map<String, Integer> frozen = map.freeze();
+
+			// then
+			assertThat(frozen).isEqualTo(expected);
+			assertThat(frozen.hashCode()).isEqualTo(expected.hashCode());
+			assertThat(frozen.size()).isEqualTo(size);
+			for (int i = 0; i < size; ++i) {
+				assertThat(frozen.get(new String("key" + i))).isEqualTo(i);
+			}
+			assertThat(frozen.get("key" + size)).isNull();
+			assertThat(frozen.containsKey("missing")).isFalse();
+		}
+	}
+
+	@Test
+	public void shouldKeepOrderOfSmallMaps() {
+		// given
+		SmallMap<String, Integer> map = SmallMap.newSmallMap();
+		map.put("xyz", 1);
+		map.put("abc", 2);
+		map.put("def", 3);
+
+		// when
+		Map<String, Integer> frozen = map.freeze();
+
+		// then
+		assertThat(new ArrayList<String>(frozen.keySet())).containsExactly("xyz", "abc", "def");
+	}
+
+	@Test
+	public void shouldHandleKeysWithEqualHashes() {
+		// given
+		SmallMap<String, Integer> map = SmallMap.newSmallMap();
+		// "Aa" and "BB" have equal hash codes, so do all their concatenations
+		String[] parts = { "Aa", "BB" };
+		for (int i = 0; i < 16; ++i) {
+			map.put(parts[i & 1] + parts[i >> 1 & 1] + parts[i >> 2 & 1] + parts[i >> 3 & 1], i);
+		}
+
+		// when
+		Map<String, Integer> frozen = map.freeze();
+
+		// then
+		assertThat(frozen).isEqualTo(map);
+		assertThat(frozen.get("AaAaAaAa")).isEqualTo(0);
+		assertThat(frozen.get("AaAaAaBc")).isNull();
+	}
+
+	@Test
+	public void shouldUseEquivalenceOfMap() {
+		// given
+		SmallMap<String, Integer> map = new SmallMap<String, Integer>(5, Equivalence.identity());
+		String key = "key";
+		map.put(key, 1);
+
+		// when
+		Map<String, Integer> frozen = map.freeze();
+
+		// then
+		assertThat(frozen.get(key)).isEqualTo(1);
+		assertThat(frozen.get(new String(key))).isNull();
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void shouldBeImmutable() {
+		SmallMap<String, Integer> map = SmallMap.newSmallMap();
+		map.put("abc", 1);
+
+		map.freeze().put("def", 2);
+	}
+
+	@Test
+	public void shouldNotChangeWithOriginalMap() {
+		// given
+		SmallMap<String, Integer> map = SmallMap.newSmallMap();
+		map.put("abc", 1);
+		Map<String, Integer> frozen = map.freeze();
+
+		// when
+		map.put("abc", 2);
+		map.put("def", 3);
+
+		// then
+		assertThat(frozen).isEqualTo(ImmutableMap.of("abc", 1));
+	}
+}
@@ -0,0 +1,181 @@
+package eu.blacksoft.smallmap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class PrimitiveSmallMapTest {
+
+	@Test
+	public void shouldAddAndGetIntKeys() {
+		// given
+		IntObjectSmallMap<String> map = new IntObjectSmallMap<String>();
+
+		// when
+		map.put(1, "abc");
+		map.put(2, "def");
+
+		// then
+		assertThat(map.get(1)).isEqualTo("abc");
+		assertThat(map.get(2)).isEqualTo("def");
+		assertThat(map.get(3)).isNull();
+		assertThat(map.containsKey(2)).isTrue();
+		assertThat(map.containsValue("def")).isTrue();
+		assertThat(map.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldSwitchIntKeysToBackingMap() {
+		// given
+		IntObjectSmallMap<String> map = new IntObjectSmallMap<String>(2);
+		map.put(1, "abc");
+		map.put(2, "def");
+
+		// when
+		map.put(3, "xyz");
+		String removed = map.remove(1);
+
+		// then
+		assertThat(removed).isEqualTo("abc");
+		assertThat(map.get(2)).isEqualTo("def");
+		assertThat(map.get(3)).isEqualTo("xyz");
+		assertThat(map.size()).isEqualTo(2);
+		assertThat(map.toString()).startsWith("[Big]");
+	}
+
+	@Test
+	public void intKeyMapsShouldBeEqualRegardlessOfMode() {
+		// given
+		IntObjectSmallMap<String> small = new IntObjectSmallMap<String>(5);
+		IntObjectSmallMap<String> big = new IntObjectSmallMap<String>(1);
+
+		// when
+		small.put(1, "abc");
+		small.put(2, "def");
+		big.put(2, "def");
+		big.put(1, "abc");
+
+		// then
+		assertThat(small).isEqualTo(big);
+		assertThat(big).isEqualTo(small);
+		assertThat(small.hashCode()).isEqualTo(big.hashCode());
+	}
+
+	@Test
+	public void shouldClearIntKeyMap() {
+		// given
+		IntObjectSmallMap<String> map = new IntObjectSmallMap<String>(1);
+		map.put(1, "abc");
+		map.put(2, "def");
+
+		// when
+		map.clear();
+		map.put(3, "xyz");
+
+		// then
+		assertThat(map.keys()).isEqualTo(new int[] { 3 });
+		assertThat(map.toString()).isEqualTo("[Small]{3=xyz}");
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void shouldNotAcceptNullValuesForIntKeys() {
+		new IntObjectSmallMap<String>().put(1, null);
+	}
+
+	@Test
+	public void shouldWorkWithLongKeys() {
+		// given
+		LongObjectSmallMap<String> map = new LongObjectSmallMap<String>(2);
+		long big = 1L << 40;
+
+		// when
+		map.put(big, "abc");
+		map.put(big + 1, "def");
+		map.put(1, "xyz");
+
+		// then
+		assertThat(map.get(big)).isEqualTo("abc");
+		assertThat(map.get(big + 1)).isEqualTo("def");
+		assertThat(map.get(1)).isEqualTo("xyz");
+		assertThat(map.get(0)).isNull();
+		assertThat(map.remove(big)).isEqualTo("abc");
+		assertThat(map.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldReturnNoEntryValueForObjectKeys() {
+		// given
+		ObjectIntSmallMap<String> map = new ObjectIntSmallMap<String>(2, -1);
+
+		// when
+		int previous = map.put("abc", 5);
+		int replaced = map.put("abc", 6);
+
+		// then
+		assertThat(previous).isEqualTo(-1);
+		assertThat(replaced).isEqualTo(5);
+		assertThat(map.get("abc")).isEqualTo(6);
+		assertThat(map.get("def")).isEqualTo(-1);
+		assertThat(map.remove("def")).isEqualTo(-1);
+	}
+
+	@Test
+	public void shouldSwitchObjectKeysToBackingMap() {
+		// given
+		ObjectIntSmallMap<String> map = new ObjectIntSmallMap<String>(2, -1);
+		map.put("abc", 1);
+		map.put("def", 2);
+
+		// when
+		map.put("xyz", 3);
+
+		// then
+		assertThat(map.get("abc")).isEqualTo(1);
+		assertThat(map.get("xyz")).isEqualTo(3);
+		assertThat(map.get("123")).isEqualTo(-1);
+		assertThat(map.containsValue(2)).isTrue();
+		assertThat(map.size()).isEqualTo(3);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void shouldNotAcceptNullKeysForIntValues() {
+		new ObjectIntSmallMap<String>().put(null, 1);
+	}
+
+	@Test
+	public void shouldWorkWithIntKeysAndValues() {
+		// given
+		IntIntSmallMap map = new IntIntSmallMap(2, -1);
+
+		// when
+		map.put(1, 10);
+		map.put(2, 20);
+		map.put(3, 30);
+		int removed = map.remove(2);
+
+		// then
+		assertThat(removed).isEqualTo(20);
+		assertThat(map.get(1)).isEqualTo(10);
+		assertThat(map.get(2)).isEqualTo(-1);
+		assertThat(map.get(3)).isEqualTo(30);
+		assertThat(map.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void intMapsShouldBeEqualRegardlessOfMode() {
+		// given
+		IntIntSmallMap small = new IntIntSmallMap(5);
+		IntIntSmallMap big = new IntIntSmallMap(1);
+
+		// when
+		small.put(1, 10);
+		small.put(2, 20);
+		big.put(2, 20);
+		big.put(1, 10);
+
+		// then
+		assertThat(small).isEqualTo(big);
+		assertThat(small.hashCode()).isEqualTo(big.hashCode());
+		assertThat(small.toString()).isEqualTo("[Small]{1=10, 2=20}");
+	}
+}
@@ -0,0 +1,198 @@
+package eu.blacksoft.smallmap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.base.Equivalence;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+public class ShapedSmallMapTest {
+	private final KeySchema root = KeySchema.root(SmallMapFactory.DEFAULT.withThreshold(8));
+
+	@Test
+	public void shouldShareSchemaOfMapsWithSameKeys() {
+		// given
+		ShapedSmallMap<String, Integer> first = new ShapedSmallMap<String, Integer>(root);
+		ShapedSmallMap<String, Integer> second = new ShapedSmallMap<String, Integer>(root);
+
+		// when
+		first.put("id", 1);
+		first.put("name", 2);
+		second.put(new String("id"), 3);
+		second.put(new String("name"), 4);
+
+		// then
+		assertThat(second.schema()).isSameAs(first.schema());
+		assertThat(first.schema().size()).isEqualTo(2);
+		assertThat(first).isEqualTo(ImmutableMap.of("id", 1, "name", 2));
+		assertThat(second).isEqualTo(ImmutableMap.of("id", 3, "name", 4));
+	}
+
+	@Test
+	public void shouldReplaceValueWithoutChangingSchema() {
+		// given
+		ShapedSmallMap<String, Integer> map = new ShapedSmallMap<String, Integer>(root);
+		map.put("id", 1);
+		KeySchema schema = map.schema();
+
+		// when
+		Integer old = map.put("id", 2);
+
+		// then
+		assertThat(old).isEqualTo(1);
+		assertThat(map.schema()).isSameAs(schema);
+		assertThat(map.get("id")).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldMoveToSchemaWithRemainingKeysOnRemove() {
+		// given
+		ShapedSmallMap<String, Integer> map = new ShapedSmallMap<String, Integer>(root);
+		map.put("a", 1);
+		map.put("b", 2);
+		map.put("c", 3);
+		ShapedSmallMap<String, Integer> expected = new ShapedSmallMap<String, Integer>(root);
+		expected.put("a", 1);
+		expected.put("c", 3);
+
+		// when
+		Integer removed = map.remove("b");
+
+		// then
+		assertThat(removed).isEqualTo(2);
+		assertThat(map.schema()).isSameAs(expected.schema());
+		assertThat(map).isEqualTo(expected);
+		assertThat(map.toString()).isEqualTo("[Shaped]{a=1, c=3}");
+	}
+
+	@Test
+	public void shouldSwitchToSmallMapWhenKeysExceedThreshold() {
+		// given
+		ShapedSmallMap<Integer, Integer> map = new ShapedSmallMap<Integer, Integer>(
+				KeySchema.root(SmallMapFactory.DEFAULT.withThreshold(3)));
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+
+		// when
+		for (int i = 0; i < 4; ++i) {
+			map.put(i, i);
+			expected.put(i, i);
+		}
+
+		// then
+		assertThat(map).isEqualTo(expected);
+		assertThat(map.schema().size()).isZero();
+		assertThat(map.toString()).startsWith("[Big]");
+	}
+
+	@Test
+	public void shouldSwitchToSmallMapWhenSchemaHasTooManyTransitions() {
+		// given
+		for (int i = 0; i < KeySchema.MAX_TRANSITIONS; ++i) {
+			new ShapedSmallMap<String, Integer>(root).put("key" + i, i);
+		}
+		ShapedSmallMap<String, Integer> map = new ShapedSmallMap<String, Integer>(root);
+
+		// when
+		map.put("other", 1);
+		map.put("key0", 2);
+
+		// then
+		assertThat(map.toString()).isEqualTo("[Small]{other=1, key0=2}");
+		assertThat(map).isEqualTo(ImmutableMap.of("other", 1, "key0", 2));
+
+		// when
+		map.clear();
+		map.put("key1", 3);
+
+		// then
+		assertThat(map.toString()).isEqualTo("[Shaped]{key1=3}");
+	}
+
+	@Test
+	public void shouldRemoveWhileIterating() {
+		// given
+		ShapedSmallMap<String, Integer> map = new ShapedSmallMap<String, Integer>(root);
+		map.put("a", 1);
+		map.put("b", 2);
+		map.put("c", 3);
+		ArrayList<String> visited = new ArrayList<String>();
+
+		// when
+		Iterator<Map.Entry<String, Integer>> it = map.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Integer> entry = it.next();
+			visited.add(entry.getKey());
+			if (entry.getValue() == 2) {
+				it.remove();
+			} else {
+				entry.setValue(entry.getValue() * 10);
+			}
+		}
+
+		// then
+		assertThat(visited).containsExactly("a", "b", "c");
+		assertThat(map).isEqualTo(ImmutableMap.of("a", 10, "c", 30));
+		assertThat(map.keySet()).containsOnly("a", "c");
+		assertThat(map.values()).containsOnly(10, 30);
+	}
+
+	@Test
+	public void shouldBehaveLikeHashMap() {
+		// given
+		ShapedSmallMap<Integer, Integer> map = new ShapedSmallMap<Integer, Integer>(root);
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+
+		// when
+		for (int i = 0; i < 1000; ++i) {
+			int key = (i * 7) % 11;
+			if (i % 3 == 0) {
+				assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+			} else {
+				assertThat(map.put(key, i)).isEqualTo(expected.put(key, i));
+			}
+
+			// then
+			assertThat(map).isEqualTo(expected);
+			assertThat(map.hashCode()).isEqualTo(expected.hashCode());
+			assertThat(map.size()).isEqualTo(expected.size());
+		}
+	}
+
+	@Test
+	public void shouldCompareKeysWithEquivalenceOfFactory() {
+		// given
+		ShapedSmallMap<String, Integer> map = new ShapedSmallMap<String, Integer>(
+				KeySchema.root(SmallMapFactory.DEFAULT.withEquivalence(Equivalence.identity())));
+		String key = "key";
+
+		// when
+		map.put(key, 1);
+		map.put(new String(key), 2);
+
+		// then
+		assertThat(map.size()).isEqualTo(2);
+		assertThat(map.get(key)).isEqualTo(1);
+		int entriesHash = 0;
+		for (Map.Entry<String, Integer> entry : map.entrySet()) {
+			entriesHash += entry.hashCode();
+		}
+		assertThat(entriesHash).isEqualTo(map.hashCode());
+		Map.Entry<String, Integer> first = map.entrySet().iterator().next();
+		assertThat(first).isNotEqualTo(Maps.immutableEntry(new String(key), 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldAcceptOnlyRootSchema() {
+		ShapedSmallMap<String, Integer> map = new ShapedSmallMap<String, Integer>(root);
+		map.put("abc", 1);
+
+		new ShapedSmallMap<String, Integer>(map.schema());
+	}
+}
@@ -0,0 +1,186 @@
+package eu.blacksoft.smallmap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.fest.assertions.Fail;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class SmallMapArenaTest {
+
+	@Test
+	public void shouldBehaveLikeHashMapsInArenaAndOnHeap() {
+		// given
+		SmallMapArena arena = new SmallMapArena(4, 64);
+		int[] handles = new int[100];
+		List<Map<Integer, Integer>> expected = new ArrayList<Map<Integer, Integer>>();
+		for (int i = 0; i < handles.length; ++i) {
+			handles[i] = arena.allocate();
+			expected.add(new HashMap<Integer, Integer>());
+		}
+		Random random = new Random(21);
+
+		// when
+		for (int i = 0; i < 10000; ++i) {
+			int map = random.nextInt(handles.length);
+			int key = random.nextInt(7);
+			if (random.nextInt(3) == 0) {
+				Integer removed = expected.get(map).remove(key);
+				int expectedValue = removed == null ? 0 : removed;
+				assertThat(arena.remove(handles[map], key)).isEqualTo(expectedValue);
+			} else {
+				Integer old = expected.get(map).put(key, i);
+				assertThat(arena.put(handles[map], key, i)).isEqualTo(old == null ? 0 : old);
+			}
+		}
+
+		// then
+		for (int i = 0; i < handles.length; ++i) {
+			assertThat(arena.map(handles[i])).isEqualTo(expected.get(i));
+			assertThat(arena.size(handles[i])).isEqualTo(expected.get(i).size());
+			for (int key = 0; key < 7; ++key) {
+				assertThat(arena.containsKey(handles[i], key)).isEqualTo(
+						expected.get(i).containsKey(key));
+				assertThat(arena.map(handles[i]).get(key)).isEqualTo(expected.get(i).get(key));
+			}
+		}
+		assertThat(arena.mapCount()).isEqualTo(handles.length);
+	}
+
+	@Test
+	public void shouldAllocateChunksAsNeeded() {
+		// given
+		// 3 maps of 2 entries (20 bytes) per chunk
+		SmallMapArena arena = new SmallMapArena(2, 64);
+
+		// when
+		for (int i = 0; i < 7; ++i) {
+			arena.put(arena.allocate(), i, i);
+		}
+
+		// then
+		assertThat(arena.offHeapBytes()).isEqualTo(3 * 60);
+		assertThat(arena.get(6, 6)).isEqualTo(6);
+	}
+
+	@Test
+	public void shouldReuseSlotsOfFreedMaps() {
+		// given
+		SmallMapArena arena = new SmallMapArena(2, 64);
+		int first = arena.allocate();
+		int second = arena.allocate();
+		for (int key = 0; key < 3; ++key) {
+			arena.put(first, key, key);
+		}
+
+		// when
+		arena.free(first);
+		int third = arena.allocate();
+
+		// then
+		assertThat(third).isEqualTo(first);
+		assertThat(arena.size(third)).isZero();
+		assertThat(arena.mapCount()).isEqualTo(2);
+		assertThat(arena.size(second)).isZero();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldNotAccessFreedMap() {
+		SmallMapArena arena = new SmallMapArena();
+		int handle = arena.allocate();
+		arena.free(handle);
+
+		arena.get(handle, 1);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldNotAccessMapsOfClosedArena() {
+		SmallMapArena arena = new SmallMapArena();
+		int handle = arena.allocate();
+		arena.put(handle, 1, 2);
+		arena.close();
+
+		arena.get(handle, 1);
+	}
+
+	@Test
+	public void shouldBehaveLikeHashMapThroughMapView() {
+		// given
+		SmallMapArena arena = new SmallMapArena(4, 64);
+		Map<Integer, Integer> map = arena.map(arena.allocate());
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		Random random = new Random(21);
+
+		// when
+		for (int i = 0; i < 1000; ++i) {
+			int key = random.nextInt(7);
+			if (random.nextInt(3) == 0) {
+				assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+			} else {
+				assertThat(map.put(key, i)).isEqualTo(expected.put(key, i));
+			}
+			if (i % 100 == 0) {
+				map.clear();
+				expected.clear();
+			}
+
+			// then
+			assertThat(map).isEqualTo(expected);
+		}
+	}
+
+	@Test
+	public void shouldNotAcceptNullKeysInMapView() {
+		// given
+		SmallMapArena arena = new SmallMapArena();
+		Map<Integer, Integer> map = arena.map(arena.allocate());
+		map.put(1, 1);
+
+		// then
+		try {
+			map.containsKey(null);
+			Fail.fail("NullPointerException expected");
+		} catch (NullPointerException e) {
+			// expected
+		}
+		try {
+			map.get(null);
+			Fail.fail("NullPointerException expected");
+		} catch (NullPointerException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void shouldWriteThroughMapView() {
+		// given
+		SmallMapArena arena = new SmallMapArena();
+		int handle = arena.allocate();
+		Map<Integer, Integer> map = arena.map(handle);
+
+		// when
+		map.put(1, 10);
+		map.put(2, 0);
+		map.put(3, 30);
+		map.remove(3);
+		for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext();) {
+			if (it.next() == 2) {
+				it.remove();
+			}
+		}
+
+		// then
+		assertThat(map.get(2)).isNull();
+		assertThat(map).isEqualTo(ImmutableMap.of(1, 10));
+		assertThat(arena.get(handle, 1)).isEqualTo(10);
+		assertThat(arena.keys(handle)).isEqualTo(new int[] { 1 });
+	}
+}
@@ -0,0 +1,126 @@
+package eu.blacksoft.smallmap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class SmallMapCodecTest {
+	private final SmallMapCodec<String, Integer> codec = new SmallMapCodec<String, Integer>(
+			SmallMapCodec.STRING, SmallMapCodec.INTEGER);
+
+	@Test
+	public void shouldWriteSizePrefixedRecords() {
+		// given
+		SmallMap<String, Integer> map = SmallMap.newSmallMap();
+		map.put("ab", 258);
+
+		// when
+		byte[] bytes = codec.encode(map);
+
+		// then
+		assertThat(bytes).isEqualTo(new byte[] { 1, 2, 'a', 'b', 4, 0, 0, 1, 2 });
+	}
+
+	@Test
+	public void shouldDecodeMapsOfEverySizeFromStreamAndBuffers() throws IOException {
+		for (int size = 0; size <= 20; ++size) {
+			// given
+			Map<String, Integer> expected = new HashMap<String, Integer>();
+			SmallMap<String, Integer> map = SmallMap.newSmallMap();
+			for (int i = 0; i < size; ++i) {
+				expected.put("key" + i, i * 1000);
+				map.put("key" + i, i * 1000);
+			}
+			byte[] bytes = codec.encode(map);
+			ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+			direct.put(bytes).flip();
+
+			// when
+			SmallMap<String, Integer> read = codec.read(new DataInputStream(
+					new ByteArrayInputStream(bytes)));
+			SmallMap<String, Integer> decoded = codec.decode(ByteBuffer.wrap(bytes));
+			SmallMap<String, Integer> decodedDirect = codec.decode(direct);
+
+			// then
+			assertThat(read).isEqualTo(expected);
+			assertThat(decoded).isEqualTo(expected);
+			assertThat(decodedDirect).isEqualTo(expected);
+			assertThat(direct.hasRemaining()).isFalse();
+			assertThat(decoded.toString()).startsWith(size > 5 ? "[Big]" : "[Small]");
+		}
+	}
+
+	@Test
+	public void shouldDecodeConsecutiveMapsAndKeepOrderOfArrays() throws IOException {
+		// given
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		codec.write(ImmutableMap.of("xyz", 1, "abc", 2), out);
+		codec.write(ImmutableMap.of("def", 3), out);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+
+		// when
+		SmallMap<String, Integer> first = codec.decode(buffer);
+		SmallMap<String, Integer> second = codec.decode(buffer);
+
+		// then
+		assertThat(first.toString()).isEqualTo("[Small]{xyz=1, abc=2}");
+		assertThat(second.toString()).isEqualTo("[Small]{def=3}");
+		assertThat(buffer.hasRemaining()).isFalse();
+	}
+
+	@Test
+	public void shouldDecodeWithFactoryOfCodec() {
+		// given
+		SmallMapFactory factory = SmallMapFactory.DEFAULT.withThreshold(16);
+		SmallMapCodec<Long, String> longCodec = new SmallMapCodec<Long, String>(
+				SmallMapCodec.LONG, SmallMapCodec.STRING, factory);
+		SmallMap<Long, String> map = SmallMap.newSmallMap(16);
+		for (long i = 0; i < 10; ++i) {
+			map.put(i << 40, "value" + i);
+		}
+
+		// when
+		SmallMap<Long, String> decoded = longCodec.decode(ByteBuffer.wrap(longCodec.encode(map)));
+
+		// then
+		assertThat(decoded).isEqualTo(map);
+		assertThat(decoded.toString()).startsWith("[Small]");
+	}
+
+	@Test
+	public void shouldBeSmallerThanJavaSerializationOfHashMap() throws IOException {
+		// given
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		for (int i = 0; i < 8; ++i) {
+			map.put("key" + i, i);
+		}
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(serialized);
+		out.writeObject(map);
+		out.close();
+
+		// when
+		byte[] encoded = codec.encode(map);
+
+		// then
+		assertThat(encoded.length).isLessThan(serialized.size() / 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectSizeExceedingBuffer() {
+		codec.decode(ByteBuffer.wrap(new byte[] { 100, 1, 'a', 4, 0, 0, 0, 1 }));
+	}
+}
@@ -0,0 +1,111 @@
+package eu.blacksoft.smallmap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Equivalence;
+
+public class SmallMapStoreTest {
+	private final SmallMapCodec<String, Integer> codec = new SmallMapCodec<String, Integer>(
+			SmallMapCodec.STRING, SmallMapCodec.INTEGER);
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("smallmap", ".store");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.delete(file);
+	}
+
+	@Test
+	public void shouldReadWrittenMapsLazily() throws IOException {
+		// given
+		Map<Integer, Map<String, Integer>> expected = new HashMap<Integer, Map<String, Integer>>();
+		try (SmallMapStore.Writer<String, Integer> writer = SmallMapStore.writer(file, codec)) {
+			for (int i = 0; i < 1000; ++i) {
+				SmallMap<String, Integer> map = SmallMap.newSmallMap();
+				for (int j = 0; j < i % 12; ++j) {
+					map.put("key" + j, i * j);
+				}
+				expected.put(writer.add(map), map);
+			}
+		}
+
+		// when
+		try (SmallMapStore<String, Integer> store = SmallMapStore.open(file, codec)) {
+
+			// then
+			assertThat(store.size()).isEqualTo(1000);
+			for (int i = 0; i < store.size(); ++i) {
+				Map<String, Integer> map = store.get(i);
+				assertThat(map.size()).isEqualTo(i % 12);
+				assertThat(map.get("key" + (i % 12))).isNull();
+				for (int j = 0; j < i % 12; ++j) {
+					assertThat(map.get("key" + j)).isEqualTo(i * j);
+				}
+				assertThat(map).isEqualTo(expected.get(i));
+				assertThat(store.load(i)).isEqualTo(expected.get(i));
+			}
+		}
+	}
+
+	@Test(expected = ClassCastException.class)
+	public void shouldRejectKeysOfOtherType() throws IOException {
+		// given
+		try (SmallMapStore.Writer<String, Integer> writer = SmallMapStore.writer(file, codec)) {
+			SmallMap<String, Integer> map = SmallMap.newSmallMap();
+			map.put("abc", 1);
+			writer.add(map);
+		}
+
+		// when
+		try (SmallMapStore<String, Integer> store = SmallMapStore.open(file, codec)) {
+			Map<String, Integer> map = store.get(0);
+
+			// then
+			assertThat(map.containsKey("abc")).isTrue();
+			assertThat(map.containsValue(1)).isTrue();
+			map.containsKey(1);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectCodecNotComparingKeysWithEquals() throws IOException {
+		try (SmallMapStore.Writer<String, Integer> writer = SmallMapStore.writer(file, codec)) {
+			writer.add(new HashMap<String, Integer>());
+		}
+
+		SmallMapStore.open(file, new SmallMapCodec<String, Integer>(SmallMapCodec.STRING,
+				SmallMapCodec.INTEGER, SmallMapFactory.DEFAULT.withEquivalence(Equivalence
+						.identity())));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void shouldBeReadOnly() throws IOException {
+		try (SmallMapStore.Writer<String, Integer> writer = SmallMapStore.writer(file, codec)) {
+			writer.add(new HashMap<String, Integer>());
+		}
+		try (SmallMapStore<String, Integer> store = SmallMapStore.open(file, codec)) {
+			store.get(0).put("abc", 1);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldRejectOtherFiles() throws IOException {
+		Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+
+		SmallMapStore.open(file, codec);
+	}
+}
@@ -0,0 +1,134 @@
+package eu.blacksoft.smallmap;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.google.common.base.Equivalence;
+import com.google.common.collect.ImmutableMap;
+
+public class StampedSmallMapTest {
+
+	@Test
+	public void shouldBehaveLikeSmallMap() {
+		for (int threshold : new int[] { 5, 1 }) {
+			// given
+			Map<String, Integer> map = new StampedSmallMap<String, Integer>(
+					SmallMapFactory.DEFAULT.withThreshold(threshold));
+
+			// when
+			map.put("abc", 1);
+			map.put("def", 2);
+			map.putIfAbsent("def", 3);
+			map.merge("abc", 10, Integer::sum);
+			map.computeIfAbsent("ghi", k -> 3);
+			map.remove("ghi", 3);
+
+			// then
+			assertThat(map).isEqualTo(ImmutableMap.of("abc", 11, "def", 2));
+			assertThat(map.get("abc")).isEqualTo(11);
+			assertThat(map.containsKey("ghi")).isFalse();
+			assertThat(map.getOrDefault("ghi", 0)).isEqualTo(0);
+			assertThat(map.keySet()).containsOnly("abc", "def");
+			assertThat(map.hashCode()).isEqualTo(ImmutableMap.of("abc", 11, "def", 2).hashCode());
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void shouldReturnUnmodifiableSnapshots() {
+		// given
+		Map<String, Integer> map = new StampedSmallMap<String, Integer>();
+		map.put("abc", 1);
+
+		// when
+		map.keySet().remove("abc");
+	}
+
+	@Test
+	public void shouldRetryUnderLockWhenComparingKeysFails() {
+		// given
+		final AtomicBoolean fail = new AtomicBoolean();
+		Map<String, Integer> map = new StampedSmallMap<String, Integer>(SmallMapFactory.DEFAULT
+				.withEquivalence(new Equivalence<String>() {
+					@Override
+					protected boolean doEquivalent(String a, String b) {
+						if (fail.getAndSet(false)) {
+							throw new IllegalStateException("Key seen half-written");
+						}
+						return a.equals(b);
+					}
+
+					@Override
+					protected int doHash(String t) {
+						return t.hashCode();
+					}
+				}));
+		map.put("abc", 1);
+
+		// when
+		fail.set(true);
+		Integer value = map.get(new String("abc"));
+
+		// then
+		assertThat(value).isEqualTo(1);
+		assertThat(fail.get()).isFalse();
+	}
+
+	@Test
+	public void shouldReadConsistentValuesWhileWriting() throws InterruptedException {
+		// given
+		final Map<Integer, Integer> map = new StampedSmallMap<Integer, Integer>();
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int t = 0; t < 3; ++t) {
+			Thread reader = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (!stop.get()) {
+							for (int key = 0; key < 8; ++key) {
+								// every value written is 10 times its key
+								Integer value = map.get(key);
+								if (value != null && value != key * 10) {
+									throw new AssertionError("Read " + value + " for " + key);
+								}
+							}
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			};
+			reader.start();
+			readers.add(reader);
+		}
+
+		// when
+		// keys 0-7 switch the map between arrays and backing map
+		for (int i = 0; i < 200000; ++i) {
+			int key = i % 8;
+			if (i % 3 == 0) {
+				map.remove(key);
+			} else {
+				map.put(key, key * 10);
+			}
+			if (i % 50 == 0) {
+				map.clear();
+			}
+		}
+		stop.set(true);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+
+		// then
+		assertThat(failure.get()).isNull();
+	}
+}
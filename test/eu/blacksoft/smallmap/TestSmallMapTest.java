@@ -2,16 +2,31 @@ package eu.blacksoft.smallmap;
 
 import static org.fest.assertions.Assertions.assertThat;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
 
 import org.fest.assertions.Fail;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import com.google.common.base.Equivalence;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
 public class TestSmallMapTest {
 
 	@Test
@@ -179,8 +194,8 @@ public class TestSmallMapTest {
 		Set<Entry<String, Integer>> entrySet = newSmallMap.entrySet();
 
 		// then
-		assertThat(entrySet).containsOnly(new MyEntry<String, Integer>("abc", 123),
-				new MyEntry<String, Integer>("def", 456));
+		assertThat(entrySet).containsOnly(new SimpleImmutableEntry<String, Integer>("abc", 123),
+				new SimpleImmutableEntry<String, Integer>("def", 456));
 	}
 
 	@Test
@@ -354,15 +369,18 @@ public class TestSmallMapTest {
 		Mockito.verify(mapMock).containsValue(123);
 
 		// when
-		smallMap.entrySet();
+		Mockito.doReturn(new HashSet<Entry<String, Integer>>()).when(mapMock).entrySet();
+		smallMap.entrySet().iterator();
 		Mockito.verify(mapMock).entrySet();
 
 		// when
-		smallMap.values();
+		Mockito.doReturn(new ArrayList<Integer>()).when(mapMock).values();
+		smallMap.values().iterator();
 		Mockito.verify(mapMock).values();
 
 		// when
-		smallMap.keySet();
+		Mockito.doReturn(new HashSet<String>()).when(mapMock).keySet();
+		smallMap.keySet().iterator();
 		Mockito.verify(mapMock).keySet();
 
 		// when
@@ -406,6 +424,859 @@ public class TestSmallMapTest {
 		Mockito.verifyNoMoreInteractions(mapMock);
 	}
 
+	/*------------------- Low watermark -------------------- */
+
+	@Test
+	public void shouldSwitchBackToArraysBelowLowWatermark() {
+		// given
+		SmallMap<String, Integer> map = SmallMapFactory.DEFAULT.withThreshold(3)
+				.withLowWatermark(2).create();
+		map.put("abc", 1);
+		map.put("def", 2);
+		map.put("xyz", 3);
+		map.put("123", 4);
+
+		// when
+		map.remove("abc");
+		boolean bigAfterFirstRemove = map.toString().startsWith("[Big]");
+		map.remove("def");
+		boolean bigAfterSecondRemove = map.toString().startsWith("[Big]");
+		map.remove("xyz");
+
+		// then
+		assertThat(bigAfterFirstRemove).isTrue();
+		assertThat(bigAfterSecondRemove).isTrue();
+		assertThat(map.toString()).isEqualTo("[Small]{123=4}");
+		assertThat(map.get("123")).isEqualTo(4);
+		assertThat(map.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldKeepWorkingAfterSwitchingBack() {
+		// given
+		SmallMap<String, Integer> map = SmallMapFactory.DEFAULT.withThreshold(3)
+				.withLowWatermark(2).withCachedHashes(true).create();
+		map.put("abc", 1);
+		map.put("def", 2);
+		map.put("xyz", 3);
+		map.put("123", 4);
+		map.remove("abc");
+		map.remove("def");
+		map.remove("123");
+
+		// when
+		map.put("123", 4);
+		map.put("xyz", 5);
+
+		// then
+		assertThat(map).isEqualTo(ImmutableMap.of("xyz", 5, "123", 4));
+		assertThat(map.toString()).startsWith("[Small]");
+	}
+
+	@Test
+	public void shouldKeepViewsOfBigMapLiveAfterSwitchingBack() {
+		// given
+		SmallMap<String, Integer> map = SmallMapFactory.DEFAULT.withThreshold(3)
+				.withLowWatermark(2).create();
+		map.put("abc", 1);
+		map.put("def", 2);
+		map.put("xyz", 3);
+		map.put("123", 4);
+		Set<String> keys = map.keySet();
+		Collection<Integer> values = map.values();
+		Set<Entry<String, Integer>> entries = map.entrySet();
+
+		// when
+		map.remove("abc");
+		map.remove("def");
+		map.remove("xyz");
+		map.put("new", 9);
+
+		// then
+		assertThat(map.toString()).startsWith("[Small]");
+		assertThat(keys).isEqualTo(new HashSet<String>(Arrays.asList("123", "new")));
+		assertThat(new ArrayList<Integer>(values)).containsOnly(4, 9);
+		assertThat(entries).isEqualTo(ImmutableMap.of("123", 4, "new", 9).entrySet());
+	}
+
+	@Test
+	public void shouldNotSetNullValuesThroughEntriesOfBigMap() {
+		// given
+		SmallMap<Integer, Integer> map = SmallMapFactory.DEFAULT.withThreshold(3)
+				.withLowWatermark(2).create();
+		for (int i = 0; i < 4; ++i) {
+			map.put(i, i);
+		}
+
+		// when
+		for (Entry<Integer, Integer> entry : map.entrySet()) {
+			try {
+				entry.setValue(null);
+				Fail.fail("NullPointerException expected");
+			} catch (NullPointerException e) {
+				// expected
+			}
+		}
+		map.remove(0);
+		map.remove(1);
+		map.remove(2);
+
+		// then
+		assertThat(map.toString()).isEqualTo("[Small]{3=3}");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRequireLowWatermarkBelowThreshold() {
+		SmallMapFactory.DEFAULT.withThreshold(3).withLowWatermark(3);
+	}
+
+	/*------------------- Cached hashes -------------------- */
+
+	@Test
+	public void shouldWorkWithCachedHashes() {
+		// given
+		SmallMap<String, Integer> map = new SmallMap<String, Integer>(3, hashMapCreator(), true);
+		map.put("xyz", 123);
+		map.put("abc", 155);
+		map.put("def", 456);
+
+		// when
+		Integer removed = map.remove("xyz");
+		map.put("abc", 1);
+
+		// then
+		assertThat(removed).isEqualTo(123);
+		assertThat(map.get("abc")).isEqualTo(1);
+		assertThat(map.get("def")).isEqualTo(456);
+		assertThat(map.get("xyz")).isNull();
+		assertThat(map.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldNotCallEqualsOnMissWithCachedHashes() {
+		// given
+		SmallMap<CountingKey, Integer> map = new SmallMap<CountingKey, Integer>(3,
+				hashMapCreator(), true);
+		CountingKey first = new CountingKey(1);
+		CountingKey second = new CountingKey(2);
+		map.put(first, 1);
+		map.put(second, 2);
+		CountingKey.equalsCalls = 0;
+
+		// when
+		Integer missing = map.get(new CountingKey(3));
+		Integer found = map.get(new CountingKey(2));
+
+		// then
+		assertThat(missing).isNull();
+		assertThat(found).isEqualTo(2);
+		assertThat(CountingKey.equalsCalls).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldConvertToBigMapWithCachedHashes() {
+		// given
+		SmallMap<String, Integer> map = new SmallMap<String, Integer>(1, hashMapCreator(), true);
+
+		// when
+		map.put("abc", 123);
+		map.put("def", 456);
+
+		// then
+		assertThat(map.get("abc")).isEqualTo(123);
+		assertThat(map.get("def")).isEqualTo(456);
+		assertThat(map.toString()).startsWith("[Big]");
+	}
+
+	/*------------------- Equivalence -------------------- */
+
+	@Test
+	public void shouldCompareAndHashIdentityMapsAlikeInBothModes() {
+		// given
+		SmallMap<String, Integer> small = SmallMap.newIdentitySmallMap();
+		SmallMap<String, Integer> big = SmallMap.newIdentitySmallMap();
+		String[] keys = { "a", "b", "c", "d", "e", "f" };
+		// values are boxed to distinct but equal objects
+		for (int i = 0; i < keys.length; ++i) {
+			big.put(keys[i], 1000 + i);
+		}
+		for (int i = 0; i < 5; ++i) {
+			small.put(keys[i], 1000 + i);
+		}
+		int smallHash = small.hashCode();
+
+		// when
+		small.put(keys[5], 1005);
+
+		// then
+		assertThat(small.toString()).startsWith("[Big]");
+		int addedHash = System.identityHashCode(keys[5]) ^ 1005;
+		assertThat(small.hashCode()).isEqualTo(smallHash + addedHash);
+		assertThat(small).isEqualTo(big);
+		assertThat(big).isEqualTo(small);
+		big.remove(keys[5]);
+		small.clear();
+		for (int i = 0; i < 5; ++i) {
+			small.put(keys[i], 1000 + i);
+		}
+		assertThat(small.toString()).startsWith("[Small]");
+		assertThat(small).isEqualTo(big);
+		assertThat(big).isEqualTo(small);
+		assertThat(big.hashCode()).isEqualTo(smallHash);
+	}
+
+	@Test
+	public void shouldCompareKeysByIdentity() {
+		// given
+		SmallMap<String, Integer> map = SmallMap.newIdentitySmallMap();
+		String key = "abc";
+		String equalKey = new String(key);
+
+		// when
+		map.put(key, 1);
+		map.put(equalKey, 2);
+
+		// then
+		assertThat(map.size()).isEqualTo(2);
+		assertThat(map.get(key)).isEqualTo(1);
+		assertThat(map.get(equalKey)).isEqualTo(2);
+		assertThat(map.get(new String(key))).isNull();
+	}
+
+	@Test
+	public void shouldNotCallEqualsForIdentity() {
+		// given
+		SmallMap<CountingKey, Integer> map = new SmallMap<CountingKey, Integer>(3,
+				Equivalence.identity());
+		CountingKey key = new CountingKey(1);
+		map.put(key, 1);
+		CountingKey.equalsCalls = 0;
+
+		// when
+		Integer found = map.get(key);
+		Integer missing = map.get(new CountingKey(1));
+
+		// then
+		assertThat(found).isEqualTo(1);
+		assertThat(missing).isNull();
+		assertThat(CountingKey.equalsCalls).isZero();
+	}
+
+	@Test
+	public void shouldKeepIdentityInBackingMap() {
+		// given
+		SmallMap<String, Integer> map = new SmallMap<String, Integer>(1,
+				Equivalence.identity());
+		String key = "abc";
+
+		// when
+		map.put(key, 1);
+		map.put(new String(key), 2);
+
+		// then
+		assertThat(map.size()).isEqualTo(2);
+		assertThat(map.get(key)).isEqualTo(1);
+		assertThat(map.get(new String(key))).isNull();
+	}
+
+	@Test
+	public void shouldUseCustomEquivalenceInBothModes() {
+		for (int size : new int[] { 5, 1 }) {
+			// given
+			SmallMap<String, Integer> map = new SmallMap<String, Integer>(size,
+					CASE_INSENSITIVE);
+
+			// when
+			map.put("abc", 1);
+			map.put("DEF", 2);
+			map.put("ABC", 3);
+
+			// then
+			assertThat(map.size()).isEqualTo(2);
+			assertThat(map.get("Abc")).isEqualTo(3);
+			assertThat(map.containsKey("def")).isTrue();
+			assertThat(map.keySet()).containsOnly("abc", "DEF");
+			assertThat(map.remove("dEf")).isEqualTo(2);
+			assertThat(map.size()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	public void shouldCacheHashesOfCustomEquivalence() {
+		// given
+		SmallMap<String, Integer> map = SmallMapFactory.DEFAULT.withThreshold(3)
+				.withEquivalence(CASE_INSENSITIVE).withCachedHashes(true).create();
+
+		// when
+		map.put("abc", 1);
+		map.put("ABC", 2);
+
+		// then
+		assertThat(map.size()).isEqualTo(1);
+		assertThat(map.get("aBc")).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldShareDefaultFactoryForSmallThresholds() {
+		// given
+		SmallMapFactory factory = SmallMapFactory.DEFAULT.withThreshold(3);
+
+		// when
+		SmallMapFactory same = SmallMapFactory.DEFAULT.withCachedHashes(true)
+				.withCachedHashes(false).withThreshold(3);
+
+		// then
+		assertThat(same).isSameAs(factory);
+		assertThat(factory.getThreshold()).isEqualTo(3);
+	}
+
+	@Test
+	public void shouldReflectChangesInViews() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+		Set<String> keySet = map.keySet();
+		Collection<Integer> values = map.values();
+		Set<Entry<String, Integer>> entrySet = map.entrySet();
+
+		// when
+		map.remove("abc");
+		map.put("ghi", 789);
+
+		// then
+		assertThat(keySet).containsOnly("xyz", "def", "ghi");
+		assertThat(values).containsOnly(123, 456, 789);
+		assertThat(entrySet).hasSize(3);
+		assertThat(entrySet.contains(new SimpleImmutableEntry<String, Integer>("ghi", 789)))
+				.isTrue();
+		assertThat(entrySet.contains(new SimpleImmutableEntry<String, Integer>("ghi", 1)))
+				.isFalse();
+	}
+
+	@Test
+	public void shouldRemoveThroughIterators() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+
+		// when
+		Iterator<String> keys = map.keySet().iterator();
+		while (keys.hasNext()) {
+			if (keys.next().equals("xyz")) {
+				keys.remove();
+			}
+		}
+		Iterator<Integer> values = map.values().iterator();
+		while (values.hasNext()) {
+			if (values.next() == 456) {
+				values.remove();
+			}
+		}
+
+		// then
+		assertThat(map.size()).isEqualTo(1);
+		assertThat(map.get("abc")).isEqualTo(155);
+	}
+
+	@Test
+	public void shouldVisitEveryEntryWhenRemovingAll() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+		Set<String> visited = new HashSet<String>();
+
+		// when
+		Iterator<Entry<String, Integer>> iterator = map.entrySet().iterator();
+		while (iterator.hasNext()) {
+			visited.add(iterator.next().getKey());
+			iterator.remove();
+		}
+
+		// then
+		assertThat(visited).containsOnly("xyz", "abc", "def");
+		assertThat(map.isEmpty()).isTrue();
+	}
+
+	@Test
+	public void shouldRemoveAndClearThroughViews() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+
+		// when
+		boolean removedKey = map.keySet().remove("xyz");
+		boolean removedEntry = map.entrySet().remove(
+				new SimpleImmutableEntry<String, Integer>("abc", 155));
+		boolean removedMissing = map.keySet().remove("missing");
+
+		// then
+		assertThat(removedKey).isTrue();
+		assertThat(removedEntry).isTrue();
+		assertThat(removedMissing).isFalse();
+		assertThat(map).isEqualTo(ImmutableMap.of("def", 456));
+
+		// when
+		map.values().clear();
+
+		// then
+		assertThat(map.isEmpty()).isTrue();
+	}
+
+	@Test
+	public void shouldKeepViewsLiveAfterSwitchingToBackingMap() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+		Set<String> keySet = map.keySet();
+
+		// when
+		map.put("ghi", 789);
+
+		// then
+		assertThat(keySet).containsOnly("xyz", "abc", "def", "ghi");
+		assertThat(keySet.size()).isEqualTo(4);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldNotRemoveTwiceThroughIterator() {
+		// given
+		Iterator<String> iterator = smallTestMap().keySet().iterator();
+		iterator.next();
+		iterator.remove();
+
+		// when
+		iterator.remove();
+	}
+
+	@Test
+	public void shouldWriteThroughEntries() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+
+		// when
+		for (Entry<String, Integer> entry : map.entrySet()) {
+			Integer previous = entry.setValue(entry.getValue() + 1);
+			assertThat(entry.getValue()).isEqualTo(previous + 1);
+		}
+
+		// then
+		assertThat(map).isEqualTo(ImmutableMap.of("xyz", 124, "abc", 156, "def", 457));
+	}
+
+	@Test
+	public void shouldFollowEntryMovedByRemoval() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+		Iterator<Entry<String, Integer>> iterator = map.entrySet().iterator();
+		Entry<String, Integer> first = iterator.next();
+		Entry<String, Integer> second = iterator.next();
+		Entry<String, Integer> third = iterator.next();
+
+		// when
+		map.remove(first.getKey());
+		third.setValue(1);
+
+		// then
+		assertThat(map.get(third.getKey())).isEqualTo(1);
+		assertThat(second.getValue()).isEqualTo(map.get(second.getKey()));
+	}
+
+	@Test
+	public void shouldWriteThroughEntryAfterSwitchingToBackingMap() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+		Entry<String, Integer> entry = map.entrySet().iterator().next();
+
+		// when
+		map.put("ghi", 789);
+		entry.setValue(1);
+
+		// then
+		assertThat(map.get(entry.getKey())).isEqualTo(1);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldNotSetValueOfRemovedEntry() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+		Entry<String, Integer> entry = map.entrySet().iterator().next();
+		map.remove(entry.getKey());
+
+		// when
+		entry.setValue(1);
+	}
+
+	@Test
+	public void shouldCompareEntriesWithOtherMaps() {
+		// given
+		Map<String, Integer> hashMap = new HashMap<String, Integer>(smallTestMap());
+
+		// when
+		Set<Entry<String, Integer>> entrySet = smallTestMap().entrySet();
+
+		// then
+		assertThat(entrySet).isEqualTo(hashMap.entrySet());
+		assertThat(entrySet.hashCode()).isEqualTo(hashMap.entrySet().hashCode());
+	}
+
+	@Test
+	public void shouldVisitAllEntriesWithCursor() {
+		for (SmallMap<String, Integer> map : Arrays.asList(smallTestMap(), bigTestMap())) {
+			// given
+			Map<String, Integer> visited = new HashMap<String, Integer>();
+
+			// when
+			MapCursor<String, Integer> cursor = map.cursor();
+			while (cursor.advance()) {
+				visited.put(cursor.key(), cursor.value());
+			}
+
+			// then
+			assertThat(visited).isEqualTo(map);
+			assertThat(cursor.advance()).isFalse();
+		}
+	}
+
+	@Test
+	public void shouldUpdateAndRemoveWithCursor() {
+		for (SmallMap<String, Integer> map : Arrays.asList(smallTestMap(), bigTestMap())) {
+			// when
+			MapCursor<String, Integer> cursor = map.cursor();
+			while (cursor.advance()) {
+				if (cursor.key().equals("abc")) {
+					cursor.remove();
+				} else {
+					cursor.setValue(cursor.value() + 1);
+				}
+			}
+
+			// then
+			assertThat(map).isEqualTo(ImmutableMap.of("xyz", 124, "def", 457));
+		}
+	}
+
+	@Test
+	public void shouldRemoveAllWithCursor() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+		int removed = 0;
+
+		// when
+		MapCursor<String, Integer> cursor = map.cursor();
+		while (cursor.advance()) {
+			cursor.remove();
+			removed++;
+		}
+
+		// then
+		assertThat(removed).isEqualTo(3);
+		assertThat(map.isEmpty()).isTrue();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldNotReadCursorBeforeAdvance() {
+		// given
+		MapCursor<String, Integer> cursor = smallTestMap().cursor();
+
+		// when
+		cursor.key();
+	}
+
+	/*------------------- Default methods -------------------- */
+
+	@Test
+	public void shouldScanOnceForEveryDefaultMethod() {
+		// given
+		SmallMap<CountingKey, Integer> map = new SmallMap<CountingKey, Integer>(5);
+		map.put(new CountingKey(1), 1);
+		map.put(new CountingKey(2), 2);
+		CountingKey missing = new CountingKey(3);
+		CountingKey.equalsCalls = 0;
+
+		// when
+		map.getOrDefault(missing, 0);
+		map.putIfAbsent(missing, 3);
+		map.merge(missing, 1, SUM);
+		map.compute(missing, (k, v) -> v * 2);
+		map.computeIfPresent(missing, (k, v) -> null);
+
+		// then
+		assertThat(CountingKey.equalsCalls).isEqualTo(2 + 2 + 3 + 3 + 3);
+		assertThat(map.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldImplementDefaultMethodsInBothModes() {
+		for (SmallMap<String, Integer> map : Arrays.asList(smallTestMap(), bigTestMap())) {
+			// when
+			assertThat(map.getOrDefault("xyz", 0)).isEqualTo(123);
+			assertThat(map.getOrDefault("missing", 0)).isEqualTo(0);
+			assertThat(map.putIfAbsent("xyz", 1)).isEqualTo(123);
+			assertThat(map.computeIfAbsent("xyz", k -> 1)).isEqualTo(123);
+			assertThat(map.computeIfAbsent("ghi", k -> null)).isNull();
+			assertThat(map.merge("abc", 1, SUM)).isEqualTo(156);
+			assertThat(map.compute("def", (k, v) -> null)).isNull();
+			assertThat(map.computeIfPresent("missing", (k, v) -> 1)).isNull();
+			assertThat(map.replace("missing", 1)).isNull();
+			assertThat(map.replace("xyz", 123, 124)).isTrue();
+			assertThat(map.replace("xyz", 123, 125)).isFalse();
+			assertThat(map.remove("abc", 1)).isFalse();
+
+			// then
+			assertThat(map).isEqualTo(ImmutableMap.of("xyz", 124, "abc", 156));
+		}
+	}
+
+	@Test
+	public void shouldInsertThroughDefaultMethods() {
+		// given
+		SmallMap<String, Integer> map = SmallMap.newSmallMap(2);
+
+		// when
+		map.putIfAbsent("abc", 1);
+		map.computeIfAbsent("def", k -> 2);
+		map.merge("ghi", 3, SUM);
+
+		// then
+		assertThat(map).isEqualTo(ImmutableMap.of("abc", 1, "def", 2, "ghi", 3));
+		assertThat(map.toString()).startsWith("[Big]");
+	}
+
+	@Test
+	public void shouldRemoveThroughDefaultMethods() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+
+		// when
+		boolean removed = map.remove("xyz", 123);
+		Integer merged = map.merge("abc", 1, (a, b) -> null);
+		Integer computed = map.computeIfPresent("def", (k, v) -> null);
+
+		// then
+		assertThat(removed).isTrue();
+		assertThat(merged).isNull();
+		assertThat(computed).isNull();
+		assertThat(map.isEmpty()).isTrue();
+	}
+
+	@Test
+	public void shouldSwitchBackToArraysWhenDefaultMethodRemoves() {
+		// given
+		SmallMap<String, Integer> map = SmallMapFactory.DEFAULT.withThreshold(3)
+				.withLowWatermark(2).create();
+		map.put("abc", 1);
+		map.put("def", 2);
+		map.put("ghi", 3);
+		map.put("jkl", 4);
+		map.remove("abc", 1);
+		map.computeIfPresent("def", (k, v) -> null);
+
+		// when
+		map.compute("ghi", (k, v) -> null);
+
+		// then
+		assertThat(map.toString()).isEqualTo("[Small]{jkl=4}");
+	}
+
+	@Test
+	public void shouldIterateAndReplaceAllWithoutEntries() {
+		for (SmallMap<String, Integer> map : Arrays.asList(smallTestMap(), bigTestMap())) {
+			// given
+			Map<String, Integer> visited = new HashMap<String, Integer>();
+
+			// when
+			map.forEach(visited::put);
+			map.replaceAll((k, v) -> v + k.length());
+
+			// then
+			assertThat(visited).isEqualTo(ImmutableMap.of("xyz", 123, "abc", 155, "def", 456));
+			assertThat(map).isEqualTo(ImmutableMap.of("xyz", 126, "abc", 158, "def", 459));
+		}
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void shouldDetectFunctionSwitchingMapToBackingMap() {
+		// given
+		final SmallMap<Integer, Integer> map = SmallMap.newSmallMap(3);
+		map.put(1, 1);
+
+		// when
+		map.computeIfAbsent(99, k -> {
+			map.put(2, 2);
+			map.put(3, 3);
+			map.put(4, 4);
+			return 7;
+		});
+	}
+
+	@Test
+	public void shouldDetectFunctionRemovingEntries() {
+		// given
+		final SmallMap<Integer, Integer> map = SmallMap.newSmallMap();
+		map.put(1, 1);
+		map.put(2, 2);
+
+		try {
+			// when
+			map.compute(2, (k, v) -> {
+				map.remove(1);
+				return 5;
+			});
+			Fail.fail("ConcurrentModificationException expected");
+		} catch (ConcurrentModificationException e) {
+			// then
+			assertThat(map).isEqualTo(ImmutableMap.of(2, 2));
+		}
+	}
+
+	@Test
+	public void shouldNotReplaceWithNullInAnyMode() {
+		for (SmallMap<String, Integer> map : Arrays.asList(smallTestMap(), bigTestMap())) {
+			try {
+				// when
+				map.replaceAll((k, v) -> k.equals("abc") ? null : v);
+				Fail.fail("NullPointerException expected");
+			} catch (NullPointerException e) {
+				// then
+				assertThat(map.containsValue(155)).isTrue();
+				assertThat(map.values()).excludes((Object) null);
+			}
+		}
+	}
+
+	/*------------------- Sorted keys -------------------- */
+
+	@Test
+	public void shouldKeepKeysSorted() {
+		// given
+		SmallMap<Integer, String> map = SmallMapFactory.DEFAULT.withThreshold(32).withSortedKeys()
+				.create();
+		Map<Integer, String> expected = new TreeMap<Integer, String>();
+		Random random = new Random(0);
+
+		// when
+		for (int i = 0; i < 200; ++i) {
+			Integer key = random.nextInt(30);
+			if (random.nextInt(3) == 0) {
+				assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+			} else {
+				assertThat(map.put(key, "v" + i)).isEqualTo(expected.put(key, "v" + i));
+			}
+		}
+
+		// then
+		assertThat(map.toString()).startsWith("[Small]");
+		assertThat(map.toString()).isEqualTo("[Small]" + expected);
+		for (int key = 0; key < 30; ++key) {
+			assertThat(map.get(key)).isEqualTo(expected.get(key));
+		}
+	}
+
+	@Test
+	public void shouldSortKeysByComparator() {
+		// given
+		SmallMap<String, Integer> map = SmallMapFactory.DEFAULT.withThreshold(10)
+				.withSortedKeys(String.CASE_INSENSITIVE_ORDER.reversed()).create();
+
+		// when
+		map.put("b", 1);
+		map.put("C", 2);
+		map.put("a", 3);
+		map.put("B", 4);
+
+		// then
+		assertThat(map.toString()).isEqualTo("[Small]{C=2, b=4, a=3}");
+		assertThat(map.containsKey("c")).isTrue();
+		assertThat(map.containsKey("d")).isFalse();
+	}
+
+	@Test
+	public void shouldVisitSortedEntriesWhenRemovingThroughIterator() {
+		// given
+		SmallMap<String, Integer> map = SmallMapFactory.DEFAULT.withSortedKeys().create();
+		map.put("c", 3);
+		map.put("a", 1);
+		map.put("d", 4);
+		map.put("b", 2);
+		List<String> visited = new ArrayList<String>();
+
+		// when
+		Iterator<String> iterator = map.keySet().iterator();
+		while (iterator.hasNext()) {
+			String key = iterator.next();
+			visited.add(key);
+			if (!key.equals("c")) {
+				iterator.remove();
+			}
+		}
+
+		// then
+		assertThat(visited).containsExactly("a", "b", "c", "d");
+		assertThat(map.toString()).isEqualTo("[Small]{c=3}");
+	}
+
+	@Test
+	public void shouldSortKeysWhenSwitchingBackToArrays() {
+		// given
+		SmallMap<String, Integer> map = SmallMapFactory.DEFAULT.withThreshold(4)
+				.withLowWatermark(3).withSortedKeys(Comparator.reverseOrder()).create();
+		for (String key : new String[] { "a", "b", "c", "d", "e" }) {
+			map.put(key, 0);
+		}
+
+		// when
+		map.remove("b");
+		map.remove("c");
+		map.remove("d");
+
+		// then
+		assertThat(map.toString()).isEqualTo("[Small]{e=0, a=0}");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldNotSortKeysWithAdaptiveThreshold() {
+		SmallMapFactory.DEFAULT.withAdaptiveThreshold(2, 32).withSortedKeys();
+	}
+
+	private static final BiFunction<Integer, Integer, Integer> SUM = (a, b) -> a + b;
+
+	private static final Equivalence<String> CASE_INSENSITIVE = new Equivalence<String>() {
+		@Override
+		protected boolean doEquivalent(String a, String b) {
+			return a.equalsIgnoreCase(b);
+		}
+
+		@Override
+		protected int doHash(String t) {
+			return t.toLowerCase().hashCode();
+		}
+	};
+
+	private static class CountingKey {
+		static int equalsCalls;
+
+		private final int id;
+
+		CountingKey(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public int hashCode() {
+			return id;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			equalsCalls++;
+			return obj instanceof CountingKey && ((CountingKey) obj).id == id;
+		}
+	}
+
+	private MapCreator hashMapCreator() {
+		return new MapCreator() {
+			@Override
+			public <K, V> Map<K, V> create(int initialSize) {
+				return new HashMap<K, V>(initialSize);
+			}
+		};
+	}
+
 	private void fillAndVerify(Map<String, Integer> mapMock, SmallMap<String, Integer> smallMap) {
 		smallMap.put("123", 123);
 		smallMap.put("456", 456);
@@ -413,6 +1284,227 @@ public class TestSmallMapTest {
 		Mockito.verify(mapMock).put("456", 456);
 	}
 
+	/*------------------- Builder -------------------- */
+
+	@Test
+	public void shouldBuildMapWithAllEntriesInOrder() {
+		// given
+		SmallMap.Builder<String, Integer> builder = SmallMap.builder();
+
+		// when
+		SmallMap<String, Integer> map = builder.put("xyz", 1).put("abc", 2).put("def", 3).build();
+
+		// then
+		assertThat(map.toString()).isEqualTo("[Small]{xyz=1, abc=2, def=3}");
+		assertThat(map.get("abc")).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldReplaceDuplicateKeysWhenNotTrusted() {
+		// given
+		SmallMap.Builder<String, Integer> builder = SmallMap.builder();
+
+		// when
+		SmallMap<String, Integer> map = builder.put("abc", 1).put("def", 2).put("abc", 3).build();
+
+		// then
+		assertThat(map).isEqualTo(ImmutableMap.of("abc", 3, "def", 2));
+	}
+
+	@Test
+	public void shouldBeEmptyAfterBuild() {
+		// given
+		SmallMap.Builder<String, Integer> builder = SmallMap.builder();
+		SmallMap<String, Integer> first = builder.expectedSize(1).put("abc", 1).build();
+
+		// when
+		SmallMap<String, Integer> second = builder.put("def", 2).build();
+		first.put("ghi", 3);
+
+		// then
+		assertThat(first).isEqualTo(ImmutableMap.of("abc", 1, "ghi", 3));
+		assertThat(second).isEqualTo(ImmutableMap.of("def", 2));
+	}
+
+	@Test
+	public void shouldBuildPresizedBackingMapWhenEntriesExceedThreshold() {
+		// given
+		final List<Integer> initialSizes = new ArrayList<Integer>();
+		SmallMapFactory factory = SmallMapFactory.DEFAULT.withMapCreator(new MapCreator() {
+			@Override
+			public <K, V> Map<K, V> create(int initialSize) {
+				initialSizes.add(initialSize);
+				return Maps.newHashMapWithExpectedSize(initialSize);
+			}
+		});
+		SmallMap.Builder<Integer, Integer> builder = SmallMap.builder(factory);
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		for (int i = 0; i < 12; ++i) {
+			builder.put(i, i);
+			expected.put(i, i);
+		}
+
+		// when
+		SmallMap<Integer, Integer> map = builder.trustUniqueKeys().build();
+
+		// then
+		assertThat(map).isEqualTo(expected);
+		assertThat(map.toString()).startsWith("[Big]");
+		// creator is asked for number of entries, not capacity
+		assertThat(initialSizes).containsExactly(12);
+	}
+
+	@Test
+	public void shouldBuildFromArraysWithTrustedUniqueKeys() {
+		// given
+		String[] keys = { "xyz", "abc", "def" };
+		Integer[] values = { 1, 2, 3 };
+		SmallMapFactory cached = SmallMapFactory.DEFAULT.withCachedHashes(true);
+		SmallMapFactory sorted = SmallMapFactory.DEFAULT.withSortedKeys();
+
+		// when
+		SmallMap<String, Integer> plain = SmallMap.fromArrays(keys, values);
+		SmallMap<String, Integer> withHashes = SmallMap.fromArrays(cached, keys, values, true);
+		SmallMap<String, Integer> withOrder = SmallMap.fromArrays(sorted, keys, values, true);
+		withHashes.put("abc", 4);
+
+		// then
+		assertThat(plain.toString()).isEqualTo("[Small]{xyz=1, abc=2, def=3}");
+		assertThat(withHashes).isEqualTo(ImmutableMap.of("xyz", 1, "abc", 4, "def", 3));
+		assertThat(withHashes.size()).isEqualTo(3);
+		assertThat(withOrder.toString()).isEqualTo("[Small]{abc=2, def=3, xyz=1}");
+		assertThat(keys).isEqualTo(new String[] { "xyz", "abc", "def" });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectArraysOfDifferentLength() {
+		SmallMap.fromArrays(new String[] { "abc" }, new Integer[0]);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void shouldRejectNullValuesOfTrustedArrays() {
+		SmallMap.fromArrays(SmallMapFactory.DEFAULT, new String[] { "abc" }, new Integer[1], true);
+	}
+
+	/*------------------- Copying -------------------- */
+
+	@Test
+	public void shouldCopySmallMapWithItsSettings() {
+		// given
+		SmallMap<String, Integer> map = new SmallMap<String, Integer>(SmallMapFactory.DEFAULT
+				.withCachedHashes(true));
+		map.put("xyz", 1);
+		map.put("abc", 2);
+
+		// when
+		SmallMap<String, Integer> copy = new SmallMap<String, Integer>(map);
+		copy.put("def", 3);
+		copy.remove("xyz");
+
+		// then
+		assertThat(map.toString()).isEqualTo("[Small]{xyz=1, abc=2}");
+		assertThat(copy.toString()).isEqualTo("[Small]{def=3, abc=2}");
+		assertThat(copy.get("abc")).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldCopyBigMap() {
+		// given
+		SmallMap<String, Integer> map = bigTestMap();
+
+		// when
+		SmallMap<String, Integer> copy = new SmallMap<String, Integer>(map);
+		copy.remove("xyz");
+
+		// then
+		assertThat(copy.toString()).startsWith("[Big]");
+		assertThat(copy).isEqualTo(ImmutableMap.of("abc", 155, "def", 456));
+		assertThat(map.size()).isEqualTo(3);
+	}
+
+	@Test
+	public void shouldPutAllOfSmallMapWithOtherSettings() {
+		// given
+		SmallMap<String, Integer> source = smallTestMap();
+		SmallMap<String, Integer> sorted = SmallMapFactory.DEFAULT.withSortedKeys().create();
+		SmallMap<String, Integer> cached = new SmallMap<String, Integer>(SmallMapFactory.DEFAULT
+				.withCachedHashes(true));
+		cached.put("abc", 1);
+		SmallMap<String, Integer> small = SmallMap.newSmallMap(3);
+		small.put("ghi", 1);
+
+		// when
+		sorted.putAll(source);
+		cached.putAll(source);
+		small.putAll(source);
+
+		// then
+		assertThat(sorted.toString()).isEqualTo("[Small]{abc=155, def=456, xyz=123}");
+		assertThat(cached.toString()).isEqualTo("[Small]{abc=155, xyz=123, def=456}");
+		assertThat(small.toString()).startsWith("[Big]");
+		assertThat(small).isEqualTo(ImmutableMap.of("ghi", 1, "xyz", 123, "abc", 155, "def", 456));
+	}
+
+	@Test
+	public void shouldKeepEntriesOfBackingMapOnPutAll() {
+		// given
+		SmallMap<String, Integer> map = bigTestMap();
+		Map<String, Integer> other = ImmutableMap.of("a", 1, "b", 2, "c", 3);
+
+		// when
+		map.putAll(other);
+
+		// then
+		assertThat(map.size()).isEqualTo(6);
+		assertThat(map.get("xyz")).isEqualTo(123);
+	}
+
+	@Test
+	public void shouldPutAllOfItself() {
+		// given
+		SmallMap<String, Integer> small = SmallMap.newSmallMap();
+		small.putAll(smallTestMap());
+		SmallMap<String, Integer> atThreshold = smallTestMap();
+		SmallMap<String, Integer> big = bigTestMap();
+
+		// when
+		small.putAll(small);
+		atThreshold.putAll(atThreshold);
+		big.putAll(big);
+
+		// then
+		Map<String, Integer> expected = ImmutableMap.of("xyz", 123, "abc", 155, "def", 456);
+		assertThat(small.toString()).startsWith("[Small]");
+		assertThat(small).isEqualTo(expected);
+		assertThat(atThreshold.toString()).startsWith("[Small]");
+		assertThat(atThreshold).isEqualTo(expected);
+		assertThat(big).isEqualTo(expected);
+	}
+
+	@Test
+	public void shouldCompareSmallMapsInAnyOrder() {
+		// given
+		SmallMap<String, Integer> map = smallTestMap();
+		SmallMap<String, Integer> reversed = SmallMap.newSmallMap();
+		reversed.put("def", 456);
+		reversed.put("abc", 155);
+		reversed.put("xyz", 123);
+		SmallMap<String, Integer> otherValue = new SmallMap<String, Integer>(map);
+		otherValue.put("abc", 1);
+		SmallMap<String, Integer> otherKey = new SmallMap<String, Integer>(map);
+		otherKey.remove("abc");
+		otherKey.put(new String("ab"), 155);
+		SmallMap<String, Integer> identity = SmallMap.newIdentitySmallMap();
+		identity.putAll(map);
+
+		// then
+		assertThat(map).isEqualTo(reversed);
+		assertThat(map).isEqualTo(new SmallMap<String, Integer>(map));
+		assertThat(map).isEqualTo(identity);
+		assertThat(map).isNotEqualTo(otherValue);
+		assertThat(map).isNotEqualTo(otherKey);
+	}
+
 	private SmallMap<String, Integer> createSmallMap(final Map<String, Integer> mapMock) {
 		SmallMap<String, Integer> smallMap = new SmallMap<String, Integer>(1, new MapCreator() {
 			@SuppressWarnings("unchecked")